@@ -0,0 +1,46 @@
+package com.msvcchat.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.config.websockets.ChatCodec;
+import com.msvcchat.entity.ChatMessage;
+import org.bson.types.ObjectId;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+
+/**
+ * Objetos compartidos por los benchmarks, configurados como en la aplicación.
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /** Equivalente al ObjectMapper que autoconfigura Spring Boot. */
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    static ChatCodec codec() {
+        return new ChatCodec(objectMapper());
+    }
+
+    static ChatProperties properties() {
+        return new ChatProperties();
+    }
+
+    static ChatMessage message(String roomId, int seq) {
+        ChatMessage message = new ChatMessage();
+        message.setId(new ObjectId().toHexString());
+        message.setRoomId(roomId);
+        message.setFromId("user-" + (seq % 20));
+        message.setFromRole(seq % 2 == 0 ? "USER" : "TRAINER");
+        message.setText("Mensaje de prueba " + seq + ": ¿hacemos series de 12 o de 15 repeticiones hoy?");
+        message.setCreatedAt(Instant.now());
+        return message;
+    }
+}
@@ -0,0 +1,52 @@
+package com.msvcchat.benchmarks;
+
+import com.msvcchat.DTOs.InboundFrame;
+import com.msvcchat.config.websockets.ChatCodec;
+import com.msvcchat.config.websockets.ChatFrame;
+import com.msvcchat.entity.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de codificar y decodificar un {@link ChatMessage} con {@link ChatCodec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChatCodecBenchmark {
+
+    private ChatCodec codec;
+    private ChatMessage message;
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        codec = BenchmarkFixtures.codec();
+        message = BenchmarkFixtures.message("room-1", 1);
+        json = codec.write(message);
+    }
+
+    @Benchmark
+    public ChatFrame encode() {
+        return codec.encode(message);
+    }
+
+    @Benchmark
+    public InboundFrame decode() throws IOException {
+        return codec.decode(json);
+    }
+}
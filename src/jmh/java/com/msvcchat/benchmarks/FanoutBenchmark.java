@@ -0,0 +1,92 @@
+package com.msvcchat.benchmarks;
+
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.config.websockets.ChatCodec;
+import com.msvcchat.config.websockets.ChatFrame;
+import com.msvcchat.config.websockets.RecentMessageCache;
+import com.msvcchat.config.websockets.RoomChannel;
+import com.msvcchat.config.websockets.RoomChannelRegistry;
+import com.msvcchat.config.websockets.SessionOutbound;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput de publicar en una sala con N sesiones suscritas: secuenciado, codificación única,
+ * entrega a cada buffer de sesión y envoltura del payload compartido en un frame de texto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FanoutBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+
+    private RoomChannelRegistry registry;
+    private RoomChannel room;
+    private ChatMessage template;
+    private Disposable.Composite sessions;
+    // sumidero de los frames entregados para que el JIT no elimine la entrega
+    private volatile WebSocketMessage lastDelivered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ChatProperties properties = BenchmarkFixtures.properties();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ChatCodec codec = BenchmarkFixtures.codec();
+        // sin reproducciones la caché no guarda ninguna sala: se mide solo la difusión
+        registry = new RoomChannelRegistry(properties, codec,
+                new RecentMessageCache(properties, codec, null, meterRegistry), meterRegistry);
+        SessionOutbound outbound = new SessionOutbound(properties, meterRegistry);
+        DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        room = registry.acquire("room-1");
+        sessions = Disposables.composite();
+        for (int i = 0; i < subscribers; i++) {
+            sessions.add(outbound.bound(room.asFlux(), null, room.roomId(),
+                            (ChatFrame frame) -> new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(frame.payload())),
+                            gap -> null)
+                    .subscribe(frame -> lastDelivered = frame));
+        }
+        template = BenchmarkFixtures.message(room.roomId(), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sessions.dispose();
+        registry.release(room);
+    }
+
+    @Benchmark
+    public Sinks.EmitResult publish() {
+        ChatMessage message = new ChatMessage();
+        message.setRoomId(template.getRoomId());
+        message.setFromId(template.getFromId());
+        message.setFromRole(template.getFromRole());
+        message.setText(template.getText());
+        return room.sequence(message, room::publish);
+    }
+}
@@ -0,0 +1,60 @@
+package com.msvcchat.benchmarks;
+
+import com.msvcchat.config.websockets.ChatCodec;
+import com.msvcchat.entity.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Serialización de una página de historial al conectar, tal como la hace el handler: un frame
+ * de texto por mensaje a través de un Flux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HistoryReplayBenchmark {
+
+    @Param({"50", "500"})
+    public int pageSize;
+
+    private ChatCodec codec;
+    private DataBufferFactory bufferFactory;
+    private List<ChatMessage> page;
+
+    @Setup
+    public void setUp() {
+        codec = BenchmarkFixtures.codec();
+        bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        page = IntStream.range(0, pageSize)
+                .mapToObj(i -> BenchmarkFixtures.message("room-1", i))
+                .toList();
+    }
+
+    @Benchmark
+    public void replay(Blackhole blackhole) {
+        Flux.fromIterable(page)
+                .map(m -> new WebSocketMessage(WebSocketMessage.Type.TEXT, bufferFactory.wrap(codec.write(m))))
+                .subscribe(blackhole::consume);
+    }
+}
@@ -0,0 +1,111 @@
+package com.msvcchat.benchmarks;
+
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.service.MessageBucketCodec;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Coste en CPU de escribir y leer una página de historial con cada disposición: un documento BSON
+ * por mensaje (colección "messages") frente a un tramo archivado (array BSON con gzip). Los tamaños
+ * de cada forma se imprimen al preparar el estado. No mide Mongo: el ahorro de índice y de lecturas
+ * de documentos hay que verlo con el loadtest contra una base real.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageLayoutBenchmark {
+
+    private static final DocumentCodec DOCUMENTS = new DocumentCodec();
+
+    @Param({"50", "1000"})
+    public int pageSize;
+
+    private List<Document> page;
+    private List<byte[]> perDocument;
+    private byte[] archived;
+
+    @Setup
+    public void setUp() {
+        page = IntStream.range(0, pageSize)
+                .mapToObj(i -> document(BenchmarkFixtures.message("room-1", i)))
+                .toList();
+        perDocument = page.stream().map(StorageLayoutBenchmark::encode).toList();
+        byte[] bson = MessageBucketCodec.encode(page);
+        archived = MessageBucketCodec.compress(bson);
+        System.out.printf("%n%d mensajes: %d B por documento, %d B en tramo, %d B archivado%n", pageSize,
+                perDocument.stream().mapToInt(bytes -> bytes.length).sum(), bson.length, archived.length);
+    }
+
+    @Benchmark
+    public void writePerDocument(Blackhole blackhole) {
+        for (Document document : page) {
+            blackhole.consume(encode(document));
+        }
+    }
+
+    @Benchmark
+    public byte[] writeArchived() {
+        return MessageBucketCodec.compress(MessageBucketCodec.encode(page));
+    }
+
+    @Benchmark
+    public void readPerDocument(Blackhole blackhole) {
+        for (byte[] bytes : perDocument) {
+            try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+                blackhole.consume(DOCUMENTS.decode(reader, DecoderContext.builder().build()));
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Document> readArchived() {
+        return MessageBucketCodec.decompress(archived);
+    }
+
+    /** Documento como lo escribe MappingMongoConverter para "messages". */
+    private static Document document(ChatMessage message) {
+        return new Document("_id", new ObjectId(message.getId()))
+                .append("roomId", message.getRoomId())
+                .append("fromId", message.getFromId())
+                .append("fromRole", message.getFromRole())
+                .append("text", message.getText())
+                .append("createdAt", Date.from(message.getCreatedAt()))
+                .append("_class", ChatMessage.class.getName());
+    }
+
+    private static byte[] encode(Document document) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            DOCUMENTS.encode(writer, document, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+}
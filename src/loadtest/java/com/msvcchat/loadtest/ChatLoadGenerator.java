@@ -0,0 +1,206 @@
+package com.msvcchat.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generador de carga para {@code /ws/chat/{roomId}}: abre miles de conexiones con el cliente
+ * WebSocket de Reactor Netty, reparte las conexiones entre salas (uniforme o Zipf), publica a un
+ * ritmo total fijo y mide la latencia publicación→recepción con HdrHistogram. Cada mensaje lleva
+ * en el texto el {@code System.nanoTime()} de envío, así que emisor y receptores comparten reloj.
+ *
+ * <p>El objetivo es una instancia ya arrancada, por ejemplo contra el Mongo de {@code compose.dev.yml},
+ * con {@code chat.membership.enabled=false} o con las salas {@code room-N} dadas de alta para los
+ * usuarios {@code loadtest-N}, y con {@code chat.identity.gateway-secret} igual a {@code gateway-secret}:
+ * el generador se presenta como el gateway.
+ * Parámetros ({@code -Dloadtest.*}):
+ * <ul>
+ *   <li>{@code url} (ws://localhost:9096), {@code connections} (1000), {@code rooms} (50)</li>
+ *   <li>{@code gateway-secret} secreto compartido con la instancia (loadtest)</li>
+ *   <li>{@code distribution} uniform|zipf (zipf), {@code zipf-exponent} (1.0)</li>
+ *   <li>{@code rate} mensajes/s totales (500), {@code duration} s (60), {@code ramp} conexiones/s (500)</li>
+ *   <li>{@code report} intervalo de informe en s (5), {@code output} fichero .hgrm (target/loadtest-latency.hgrm)</li>
+ * </ul>
+ */
+public final class ChatLoadGenerator {
+
+    private static final String MARKER = "\"text\":\"lt:";
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String url;
+    private final String gatewaySecret;
+    private final int connections;
+    private final RoomPicker rooms;
+    private final double rate;
+    private final Duration duration;
+    private final int ramp;
+    private final Duration report;
+    private final Path output;
+
+    private final Recorder recorder = new Recorder(MAX_LATENCY_NANOS, 3);
+    private final Histogram total = new Histogram(MAX_LATENCY_NANOS, 3);
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private ChatLoadGenerator() {
+        this.url = System.getProperty("loadtest.url", "ws://localhost:9096");
+        this.gatewaySecret = System.getProperty("loadtest.gateway-secret", "loadtest");
+        this.connections = Integer.getInteger("loadtest.connections", 1000);
+        int roomCount = Integer.getInteger("loadtest.rooms", 50);
+        this.rooms = "uniform".equalsIgnoreCase(System.getProperty("loadtest.distribution", "zipf"))
+                ? RoomPicker.uniform(roomCount)
+                : RoomPicker.zipf(roomCount, Double.parseDouble(System.getProperty("loadtest.zipf-exponent", "1.0")));
+        this.rate = Double.parseDouble(System.getProperty("loadtest.rate", "500"));
+        this.duration = Duration.ofSeconds(Long.getLong("loadtest.duration", 60L));
+        this.ramp = Integer.getInteger("loadtest.ramp", 500);
+        this.report = Duration.ofSeconds(Long.getLong("loadtest.report", 5L));
+        this.output = Path.of(System.getProperty("loadtest.output", "target/loadtest-latency.hgrm"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new ChatLoadGenerator().run();
+    }
+
+    private void run() throws IOException {
+        System.out.printf("Carga: %d conexiones, %s, %.0f msg/s durante %s contra %s%n",
+                connections, rooms, rate, duration, url);
+        // sin pool: el pool por defecto limita las conexiones por host
+        HttpClient client = HttpClient.newConnection()
+                .baseUrl(url)
+                .responseTimeout(Duration.ofSeconds(10));
+        // cada conexión publica a rate/connections mensajes por segundo
+        Duration period = Duration.ofNanos((long) (TimeUnit.SECONDS.toNanos(1) * connections / rate));
+
+        Disposable reporting = Flux.interval(report).subscribe(tick -> report());
+        Flux.range(0, connections)
+                .delayElements(Duration.ofNanos(TimeUnit.SECONDS.toNanos(1) / Math.max(1, ramp)))
+                .flatMap(i -> connection(client, i, rooms.next(), period), connections)
+                .take(duration)
+                .blockLast();
+        reporting.dispose();
+        report();
+        summary();
+    }
+
+    private Flux<Void> connection(HttpClient client, int index, String roomId, Duration period) {
+        Flux<String> outbound = Flux.interval(period.plusNanos(ThreadLocalRandom.current().nextLong(period.toNanos() + 1)), period)
+                .map(tick -> "{\"text\":\"lt:" + System.nanoTime() + "\"}")
+                .doOnNext(text -> sent.increment());
+        return client.headers(headers -> headers.add("X-User-Id", "loadtest-" + index)
+                        .add("X-Gateway-Secret", gatewaySecret))
+                .websocket(WebsocketClientSpec.builder().maxFramePayloadLength(1 << 20).build())
+                .uri("/ws/chat/" + roomId + "?limit=1")
+                .handle((in, out) -> {
+                    open.incrementAndGet();
+                    return out.sendString(outbound).then()
+                            .and(in.receive().asString().doOnNext(this::record).then())
+                            .doFinally(signal -> open.decrementAndGet());
+                })
+                .onErrorResume(e -> {
+                    failed.increment();
+                    return Mono.empty();
+                });
+    }
+
+    private void record(String frame) {
+        int start = frame.indexOf(MARKER);
+        if (start < 0) {
+            return;
+        }
+        int from = start + MARKER.length();
+        int to = frame.indexOf('"', from);
+        long sentAt = Long.parseLong(frame, from, to, 10);
+        long latency = System.nanoTime() - sentAt;
+        if (latency > 0 && latency < MAX_LATENCY_NANOS) {
+            recorder.recordValue(latency);
+            received.increment();
+        }
+    }
+
+    private synchronized void report() {
+        Histogram interval = recorder.getIntervalHistogram();
+        total.add(interval);
+        System.out.printf("abiertas=%d enviados=%d recibidos=%d fallos=%d | %s%n",
+                open.get(), sent.sum(), received.sum(), failed.sum(), percentiles(interval));
+    }
+
+    private void summary() throws IOException {
+        System.out.println("Total: " + percentiles(total));
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(output.toFile())) {
+            total.outputPercentileDistribution(out, 1_000_000.0);
+        }
+        System.out.println("Distribución completa (ms) en " + output.toAbsolutePath());
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "sin muestras";
+        }
+        return String.format("n=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMaxValue() / 1e6);
+    }
+
+    /**
+     * Reparto de conexiones entre salas {@code room-0..room-(n-1)}.
+     */
+    private record RoomPicker(String description, double[] cumulative) {
+
+        static RoomPicker uniform(int rooms) {
+            return zipf(rooms, 0.0, "uniforme");
+        }
+
+        static RoomPicker zipf(int rooms, double exponent) {
+            return zipf(rooms, exponent, "zipf(s=" + exponent + ")");
+        }
+
+        private static RoomPicker zipf(int rooms, double exponent, String description) {
+            double[] cumulative = new double[rooms];
+            double sum = 0;
+            for (int i = 0; i < rooms; i++) {
+                sum += 1.0 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < rooms; i++) {
+                cumulative[i] /= sum;
+            }
+            return new RoomPicker(rooms + " salas " + description, cumulative);
+        }
+
+        String next() {
+            double r = ThreadLocalRandom.current().nextDouble();
+            for (int i = 0; i < cumulative.length; i++) {
+                if (r <= cumulative[i]) {
+                    return "room-" + i;
+                }
+            }
+            return "room-" + (cumulative.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
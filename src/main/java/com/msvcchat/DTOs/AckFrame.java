@@ -0,0 +1,21 @@
+package com.msvcchat.DTOs;
+
+/**
+ * Confirmación al emisor del estado de persistencia de su mensaje. Lleva el {@code clientMsgId}
+ * del cliente para casar el ack con su envío; {@code duplicate} indica que era un reintento de un
+ * mensaje ya aceptado, cuyo {@code id} es el del original.
+ */
+public record AckFrame(String type, String id, String clientMsgId, String status, boolean duplicate) {
+
+    public static AckFrame persisted(String id, String clientMsgId) {
+        return new AckFrame("ack", id, clientMsgId, "persisted", false);
+    }
+
+    public static AckFrame duplicate(String id, String clientMsgId) {
+        return new AckFrame("ack", id, clientMsgId, "persisted", true);
+    }
+
+    public static AckFrame failed(String id, String clientMsgId) {
+        return new AckFrame("ack", id, clientMsgId, "failed", false);
+    }
+}
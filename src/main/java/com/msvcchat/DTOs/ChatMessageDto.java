@@ -0,0 +1,10 @@
+package com.msvcchat.DTOs;
+
+import java.time.Instant;
+
+/**
+ * Mensaje tal como lo ve un cliente del API REST: sin campos internos como el nodo de origen.
+ */
+public record ChatMessageDto(String id, String roomId, String fromId, String fromRole, String text, String clientMsgId,
+                             Instant createdAt) {
+}
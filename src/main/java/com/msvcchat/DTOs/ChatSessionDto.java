@@ -0,0 +1,12 @@
+package com.msvcchat.DTOs;
+
+import java.time.Instant;
+
+/**
+ * Estado de una sesión WebSocket para el endpoint de actuator {@code chatsessions}.
+ * {@code bufferedBytes} es lo que espera en su buffer de salida sin haberse enviado.
+ */
+public record ChatSessionDto(String id, String roomId, String userId, Instant openedAt, long ageSeconds,
+                             long idleMillis, long messagesIn, long messagesOut, long bytesIn, long bytesOut,
+                             long bufferedBytes) {
+}
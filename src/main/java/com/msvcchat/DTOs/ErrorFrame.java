@@ -0,0 +1,11 @@
+package com.msvcchat.DTOs;
+
+/**
+ * Error dirigido a una sola sesión; el mensaje que lo provocó no se ha aceptado.
+ */
+public record ErrorFrame(String type, String code, Long retryAfterMs) {
+
+    public static ErrorFrame rateLimited(long retryAfterMs) {
+        return new ErrorFrame("error", "rate_limited", retryAfterMs);
+    }
+}
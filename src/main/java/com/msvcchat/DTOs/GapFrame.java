@@ -0,0 +1,12 @@
+package com.msvcchat.DTOs;
+
+/**
+ * Aviso al cliente de que se perdieron mensajes en vivo; debe recargar el historial
+ * desde {@code since} (o desde su último mensaje visto si viene vacío).
+ */
+public record GapFrame(String type, String roomId, String since) {
+
+    public static GapFrame of(String roomId, HistoryCursor since) {
+        return new GapFrame("gap", roomId, since != null ? since.encode() : null);
+    }
+}
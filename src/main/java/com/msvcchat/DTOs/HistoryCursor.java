@@ -0,0 +1,54 @@
+package com.msvcchat.DTOs;
+
+import com.msvcchat.entity.ChatMessage;
+
+import java.time.Instant;
+
+/**
+ * Posición keyset dentro del historial de una sala. Formato en texto: {@code <epochMillis>_<id>},
+ * el id es opcional; sin él el cursor excluye todos los mensajes con el mismo createdAt.
+ */
+public record HistoryCursor(Instant createdAt, String id) {
+
+    private static final String MIN_ID = "000000000000000000000000";
+    private static final String MAX_ID = "ffffffffffffffffffffffff";
+
+    public static HistoryCursor of(ChatMessage message) {
+        return new HistoryCursor(message.getCreatedAt(), message.getId());
+    }
+
+    public static HistoryCursor parse(String value) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Cursor vacío");
+        }
+        int sep = value.indexOf('_');
+        String millis = sep < 0 ? value : value.substring(0, sep);
+        String id = sep < 0 || sep == value.length() - 1 ? null : value.substring(sep + 1);
+        try {
+            return new HistoryCursor(Instant.ofEpochMilli(Long.parseLong(millis)), id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor inválido: " + value, e);
+        }
+    }
+
+    /** Id a usar como cota superior exclusiva ("before"). */
+    public String idOrMin() {
+        return id != null ? id : MIN_ID;
+    }
+
+    /** Id a usar como cota inferior exclusiva ("since"). */
+    public String idOrMax() {
+        return id != null ? id : MAX_ID;
+    }
+
+    /** Orden keyset (createdAt, id) del mensaje respecto a la posición dada. */
+    public static int compare(ChatMessage message, Instant createdAt, String id) {
+        int byTime = message.getCreatedAt().compareTo(createdAt);
+        // los ObjectId en hexadecimal ordenan igual que los binarios
+        return byTime != 0 ? byTime : message.getId().compareTo(id);
+    }
+
+    public String encode() {
+        return id != null ? createdAt.toEpochMilli() + "_" + id : String.valueOf(createdAt.toEpochMilli());
+    }
+}
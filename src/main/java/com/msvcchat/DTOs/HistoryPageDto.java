@@ -0,0 +1,11 @@
+package com.msvcchat.DTOs;
+
+import java.util.List;
+
+/**
+ * Página de historial en orden cronológico. {@code before} y {@code since} son los cursores para
+ * pedir la página anterior ({@code ?before=}) o la siguiente ({@code ?since=}); {@code hasMore}
+ * indica si en la dirección pedida quedan más mensajes.
+ */
+public record HistoryPageDto(List<ChatMessageDto> items, String before, String since, boolean hasMore) {
+}
@@ -0,0 +1,48 @@
+package com.msvcchat.DTOs;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * Parámetros de reproducción de historial recibidos en el handshake
+ * ({@code ?before=<cursor>}, {@code ?since=<cursor>}, {@code ?limit=N}). Al reconectar, el cliente
+ * puede mandar {@code ?lastSeen=<id o cursor>} en su lugar; lo resuelve
+ * {@link com.msvcchat.service.ChatHistoryService#resume}.
+ */
+@Slf4j
+public record HistoryQuery(HistoryCursor before, HistoryCursor since, Integer limit) {
+
+    public static HistoryQuery latest() {
+        return new HistoryQuery(null, null, null);
+    }
+
+    public static HistoryQuery fromParams(MultiValueMap<String, String> params) {
+        return new HistoryQuery(
+                cursor(params.getFirst("before")),
+                cursor(params.getFirst("since")),
+                limit(params.getFirst("limit")));
+    }
+
+    private static HistoryCursor cursor(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return HistoryCursor.parse(value);
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignorando cursor de historial: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static Integer limit(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
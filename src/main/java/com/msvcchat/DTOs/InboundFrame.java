@@ -0,0 +1,42 @@
+package com.msvcchat.DTOs;
+
+import com.msvcchat.entity.ChatMessage;
+
+import java.time.Instant;
+
+/**
+ * Frame recibido del cliente. Sin {@code type}, o con "message", es un mensaje de chat y se persiste;
+ * "typing" es un aviso efímero de que el usuario escribe ({@code active}) y no se guarda; "read"
+ * confirma la lectura hasta el mensaje {@code messageId} de la sala ({@code createdAt} se admite pero
+ * el servidor usa el guardado). Un mensaje con
+ * {@code clientMsgId} puede reenviarse sin miedo a duplicarlo. {@code fromId} y {@code fromRole} se
+ * admiten por compatibilidad pero se ignoran: el emisor es el usuario autenticado en el handshake.
+ */
+public record InboundFrame(String type, String fromId, String fromRole, String text, Boolean active,
+                           String messageId, Instant createdAt, String clientMsgId) {
+
+    public static final String MESSAGE = "message";
+    public static final String TYPING = "typing";
+    public static final String READ = "read";
+
+    public boolean isMessage() {
+        return type == null || MESSAGE.equals(type);
+    }
+
+    public boolean isTyping() {
+        return TYPING.equals(type);
+    }
+
+    public boolean isRead() {
+        return READ.equals(type) && messageId != null;
+    }
+
+    public ChatMessage toMessage(String senderId, String senderRole) {
+        ChatMessage message = new ChatMessage();
+        message.setFromId(senderId);
+        message.setFromRole(senderRole);
+        message.setText(text);
+        message.setClientMsgId(clientMsgId == null || clientMsgId.isBlank() ? null : clientMsgId);
+        return message;
+    }
+}
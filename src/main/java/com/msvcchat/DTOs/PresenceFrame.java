@@ -0,0 +1,18 @@
+package com.msvcchat.DTOs;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cambio de presencia en la sala. Al conectar se envía uno con todos los usuarios en línea.
+ */
+public record PresenceFrame(String type, String roomId, String status, Collection<String> userIds) {
+
+    public static PresenceFrame online(String roomId, Collection<String> userIds) {
+        return new PresenceFrame("presence", roomId, "online", userIds);
+    }
+
+    public static PresenceFrame offline(String roomId, String userId) {
+        return new PresenceFrame("presence", roomId, "offline", List.of(userId));
+    }
+}
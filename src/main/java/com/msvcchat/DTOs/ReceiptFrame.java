@@ -0,0 +1,13 @@
+package com.msvcchat.DTOs;
+
+import java.time.Instant;
+
+/**
+ * Aviso a la sala de hasta qué mensaje ha leído un miembro.
+ */
+public record ReceiptFrame(String type, String roomId, String userId, String messageId, Instant createdAt) {
+
+    public static ReceiptFrame of(String roomId, String userId, String messageId, Instant createdAt) {
+        return new ReceiptFrame("read", roomId, userId, messageId, createdAt);
+    }
+}
@@ -0,0 +1,10 @@
+package com.msvcchat.DTOs;
+
+import java.time.Instant;
+
+/**
+ * Sala de la lista de un usuario con su contador de no leídos. El recuento se corta en
+ * {@code chat.receipts.unread-cap}; {@code capped} indica que hay más (p. ej. "99+").
+ */
+public record RoomUnreadDto(String roomId, long unread, boolean capped, String lastReadId, Instant lastReadAt) {
+}
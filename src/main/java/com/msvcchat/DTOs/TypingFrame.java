@@ -0,0 +1,11 @@
+package com.msvcchat.DTOs;
+
+/**
+ * Aviso efímero de que un miembro de la sala está (o ha dejado de estar) escribiendo.
+ */
+public record TypingFrame(String type, String roomId, String userId, boolean active) {
+
+    public static TypingFrame of(String roomId, String userId, boolean active) {
+        return new TypingFrame("typing", roomId, userId, active);
+    }
+}
@@ -3,8 +3,10 @@ package com.msvcchat;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication(exclude = {DataSourceAutoConfiguration.class})
+@ConfigurationPropertiesScan
 public class MsvcChatApplication {
     public static void main(String[] args) {
         SpringApplication.run(MsvcChatApplication.class, args);
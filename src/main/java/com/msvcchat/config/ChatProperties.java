@@ -0,0 +1,215 @@
+package com.msvcchat.config;
+
+import com.msvcchat.config.websockets.OverflowPolicy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "chat")
+public class ChatProperties {
+
+    private History history = new History();
+    private Rooms rooms = new Rooms();
+    private Sessions sessions = new Sessions();
+    private Persistence persistence = new Persistence();
+    private Cluster cluster = new Cluster();
+    private Inbound inbound = new Inbound();
+    private Metrics metrics = new Metrics();
+    private Membership membership = new Membership();
+    private Identity identity = new Identity();
+    private Ephemeral ephemeral = new Ephemeral();
+    private RateLimit rateLimit = new RateLimit();
+    private Receipts receipts = new Receipts();
+    private Dedup dedup = new Dedup();
+    private Archive archive = new Archive();
+    private Affinity affinity = new Affinity();
+
+    @Data
+    public static class History {
+        /** Mensajes enviados al conectar cuando el cliente no indica límite. */
+        private int defaultLimit = 50;
+        /** Tope para cualquier página de historial, lo pida o no el cliente. */
+        private int maxLimit = 500;
+        /** Sirve la reproducción al conectar desde la caché de mensajes recientes de cada sala. */
+        private boolean cacheEnabled = true;
+        /** Mensajes recientes que se guardan por sala; conviene que no sea menor que {@code maxLimit}. */
+        private int cacheRoomCapacity = 500;
+        /** Presupuesto de memoria de la caché entre todas las salas. */
+        private DataSize cacheMaxMemory = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Rooms {
+        /** Tiempo que se conserva el canal de una sala vacía por si el cliente reconecta. */
+        private Duration evictionGrace = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Sessions {
+        /** Mensajes pendientes de envío que se toleran por sesión antes de aplicar la política. */
+        private int outboundBuffer = 256;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        /** Espera máxima al parar para confirmar los mensajes en curso y cerrar las sesiones. */
+        private Duration drainTimeout = Duration.ofSeconds(10);
+        /** Cada cuánto se envía un ping a cada cliente. */
+        private Duration pingInterval = Duration.ofSeconds(20);
+        /** Sin recibir nada (ni pongs) durante este tiempo, la sesión se da por muerta y se cierra. */
+        private Duration idleTimeout = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Persistence {
+        /** Mensajes por insertMany. */
+        private int batchSize = 200;
+        /** Espera máxima antes de vaciar un lote incompleto. */
+        private Duration flushInterval = Duration.ofMillis(50);
+        /** Mensajes aceptados y aún no persistidos; por encima se rechazan. */
+        private int queueCapacity = 10_000;
+        private int maxInFlightBatches = 2;
+        private int maxRetries = 5;
+        /** Espera antes del primer reintento; se duplica en cada uno. */
+        private Duration retryBackoff = Duration.ofMillis(100);
+        /** Mensajes sin confirmar que se permiten por sesión antes de dejar de leer el socket. */
+        private int maxPendingPerSession = 256;
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Cluster {
+        /** Difusión entre instancias vía change stream de "messages"; requiere replica set. */
+        private boolean enabled = false;
+        /**
+         * Identificador estable de la instancia, el mismo tras cada reinicio: clave del resume token
+         * persistido y marca de origen de los mensajes. Obligatorio con la difusión activa.
+         */
+        private String instanceId;
+        /** Cada cuánto se reevalúa el filtro de salas locales del change stream. */
+        private Duration resubscribeInterval = Duration.ofMillis(500);
+        /** Retroceso al añadir salas al filtro, para no perder lo publicado mientras se reabría el stream. */
+        private Duration resubscribeLookback = Duration.ofSeconds(5);
+        private Duration tokenFlushInterval = Duration.ofSeconds(1);
+        private Duration minBackoff = Duration.ofSeconds(1);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+        /** Ids recientes recordados para descartar eventos repetidos al reanudar. */
+        private int dedupWindow = 10_000;
+    }
+
+    @Data
+    public static class Inbound {
+        /** Decodifica en hilos virtuales; si no, en un pool paralelo de {@code workerThreads}. */
+        private boolean virtualThreads = true;
+        private int workerThreads = Runtime.getRuntime().availableProcessors();
+        /** Frames de una misma sesión que se decodifican en paralelo. */
+        private int decodeConcurrency = 8;
+    }
+
+    @Data
+    public static class Metrics {
+        /** Salas que se etiquetan con su roomId en las métricas; las demás van como "other". */
+        private List<String> roomAllowList = new ArrayList<>();
+    }
+
+    @Data
+    public static class Membership {
+        /** Exige ser miembro de la sala (users o trainers) para abrir su WebSocket. */
+        private boolean enabled = true;
+        /** Vida máxima de una entrada de la caché de miembros. */
+        private Duration expireAfterWrite = Duration.ofMinutes(10);
+        /** Antigüedad a partir de la cual una entrada se recarga en segundo plano al leerla. */
+        private Duration refreshAfterWrite = Duration.ofMinutes(1);
+        /** Salas como máximo en la caché de miembros. */
+        private long maximumSize = 100_000;
+    }
+
+    @Data
+    public static class Identity {
+        /** Cabecera con el usuario ya autenticado por el gateway. */
+        private String userHeader = "X-User-Id";
+        /** Cabecera con el secreto compartido que prueba que la petición viene del gateway. */
+        private String secretHeader = "X-Gateway-Secret";
+        /** Secreto compartido con el gateway; sin él no se confía en {@code userHeader}. */
+        private String gatewaySecret;
+    }
+
+    @Data
+    public static class Ephemeral {
+        /** Intervalo mínimo entre dos avisos de "escribiendo" del mismo usuario en la misma sala. */
+        private Duration typingInterval = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class RateLimit {
+        /** Aplica los límites de mensajes entrantes. */
+        private boolean enabled = true;
+        /** Mensajes por segundo que se reponen en el bucket de cada sesión. */
+        private double sessionRate = 5;
+        /** Mensajes seguidos que admite una sesión con el bucket lleno. */
+        private int sessionBurst = 20;
+        /** Mensajes por segundo por usuario, sumando todas sus sesiones en esta instancia. */
+        private double userRate = 10;
+        /** Ráfaga por usuario. */
+        private int userBurst = 40;
+        /** Rechazos seguidos tras los que se cierra la sesión. */
+        private int maxViolations = 50;
+        /** Tiempo sin mensajes tras el que se olvida el bucket de un usuario. */
+        private Duration userIdleExpiry = Duration.ofMinutes(10);
+        /** Usuarios con bucket en memoria como máximo. */
+        private long maxTrackedUsers = 100_000;
+    }
+
+    @Data
+    public static class Receipts {
+        /** Cada cuánto se vuelcan a Mongo los cursores de lectura acumulados en memoria. */
+        private Duration flushInterval = Duration.ofSeconds(1);
+        /** No leídos que se cuentan como máximo por sala en la lista de salas. */
+        private int unreadCap = 99;
+        /** Tiempo máximo para el último volcado al parar. */
+        private Duration shutdownTimeout = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Dedup {
+        /** Ids de cliente recientes que se recuerdan por instancia para descartar reintentos. */
+        private long maximumSize = 100_000;
+        /** Tiempo que se recuerda cada id; los reintentos posteriores los descarta el índice único. */
+        private Duration retention = Duration.ofMinutes(10);
+    }
+
+    @Data
+    public static class Archive {
+        /** Mueve los mensajes antiguos a tramos comprimidos en "message_archive" y los lee de allí. */
+        private boolean enabled = false;
+        /** Antigüedad a partir de la cual un mensaje se archiva. */
+        private Duration minAge = Duration.ofDays(30);
+        /** Ventana de tiempo de cada tramo: un tramo nunca mezcla mensajes de dos ventanas. */
+        private Duration bucketWindow = Duration.ofDays(1);
+        /** Mensajes como máximo por tramo. */
+        private int maxBucketMessages = 1000;
+        /** Cada cuánto se buscan mensajes que archivar. */
+        private Duration compactInterval = Duration.ofHours(1);
+        /** Vida del lease de una sala en compactación; se renueva en cada tramo escrito. */
+        private Duration leaseTimeout = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Affinity {
+        /** Asigna cada sala a una instancia con hash consistente sobre las registradas en Eureka. */
+        private boolean enabled = false;
+        /** Servicio de Eureka cuyas instancias forman el anillo. */
+        private String serviceId = "msvc-chat";
+        /**
+         * Cierra con 4021 las sesiones de salas ajenas nada más abrirlas, con la dueña como motivo; si
+         * no, las atiende igual. En ambos casos el handshake indica la dueña en X-Chat-Owner.
+         */
+        private boolean handoff = true;
+        /** Puntos por instancia en el anillo; más puntos, reparto más uniforme. */
+        private int virtualNodes = 128;
+        /** Cada cuánto se relee la lista de instancias. */
+        private Duration refreshInterval = Duration.ofSeconds(10);
+    }
+}
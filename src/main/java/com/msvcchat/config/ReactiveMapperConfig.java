@@ -1,26 +1,17 @@
 package com.msvcchat.config;
 
 import org.mapstruct.MapperConfig;
-import org.mapstruct.ReportingPolicy;
 import org.mapstruct.NullValueCheckStrategy;
 import org.mapstruct.NullValuePropertyMappingStrategy;
-import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
-import java.util.function.Function;
 
+/**
+ * Configuración común de los mappers. Los Mono/Flux se mapean con {@code .map(mapper::toDto)}:
+ * MapStruct no sabe generar métodos genéricos sobre tipos reactivos.
+ */
 @MapperConfig(
     componentModel = "spring",
-    unmappedTargetPolicy = ReportingPolicy.IGNORE,
     nullValueCheckStrategy = NullValueCheckStrategy.ALWAYS,
     nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE
 )
 public interface ReactiveMapperConfig {
-    
-    default <T, R> Mono<R> mapMono(Mono<T> mono, Function<T, R> mapper) {
-        return mono.map(mapper);
-    }
-    
-    default <T, R> Flux<R> mapFlux(Flux<T> flux, Function<T, R> mapper) {
-        return flux.map(mapper);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+package com.msvcchat.config;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Principal;
+
+/**
+ * Usuario autenticado de una petición HTTP o de un handshake. Vale el {@link Principal} del
+ * exchange si hay uno, o la cabecera {@code chat.identity.user-header} cuando la petición trae
+ * además el secreto del gateway. Nunca se toma de parámetros ni de cabeceras sin ese secreto.
+ */
+@Component
+public class RequestIdentity {
+
+    private final ChatProperties.Identity config;
+    private final byte[] gatewaySecret;
+
+    public RequestIdentity(ChatProperties properties) {
+        this.config = properties.getIdentity();
+        String secret = config.getGatewaySecret();
+        this.gatewaySecret = secret == null || secret.isBlank() ? null : secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Id del usuario autenticado, o vacío si la petición es anónima. */
+    public Mono<String> userId(ServerWebExchange exchange) {
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .filter(name -> !name.isBlank())
+                .switchIfEmpty(Mono.fromSupplier(() -> fromGateway(exchange.getRequest().getHeaders())));
+    }
+
+    private String fromGateway(HttpHeaders headers) {
+        if (gatewaySecret == null) {
+            return null;
+        }
+        String secret = headers.getFirst(config.getSecretHeader());
+        // comparación en tiempo constante para no filtrar el secreto por latencia
+        if (secret == null || !MessageDigest.isEqual(gatewaySecret, secret.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        String userId = headers.getFirst(config.getUserHeader());
+        return userId == null || userId.isBlank() ? null : userId;
+    }
+}
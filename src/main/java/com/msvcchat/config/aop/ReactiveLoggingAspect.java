@@ -1,5 +1,8 @@
 package com.msvcchat.config.aop;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
@@ -7,22 +10,65 @@ import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mide los métodos {@link ReactiveLog} desde la suscripción hasta que terminan, con el timer
+ * {@code reactive.method} etiquetado por clase, método, resultado y tipo de excepción.
+ */
 @Aspect
 @Component
+@RequiredArgsConstructor
 public class ReactiveLoggingAspect {
 
+    private static final String METRIC = "reactive.method";
+
+    private final MeterRegistry meterRegistry;
+    // un Timer por combinación de etiquetas: registrarlo en cada terminación cuesta más que medir
+    private final Map<TimerKey, Timer> timers = new ConcurrentHashMap<>();
+
     @Around("@annotation(ReactiveLog)")
     public Object logReactiveMethods(ProceedingJoinPoint joinPoint) throws Throwable {
         Object result = joinPoint.proceed();
-        if (result instanceof Mono) {
-            return ((Mono<?>) result)
-                    .doOnSubscribe(subscription -> System.out.println("Mono started: " + joinPoint.getSignature()))
-                    .doOnTerminate(() -> System.out.println("Mono completed: " + joinPoint.getSignature()));
-        } else if (result instanceof Flux) {
-            return ((Flux<?>) result)
-                    .doOnSubscribe(subscription -> System.out.println("Flux started: " + joinPoint.getSignature()))
-                    .doOnTerminate(() -> System.out.println("Flux completed: " + joinPoint.getSignature()));
+        String type = joinPoint.getSignature().getDeclaringType().getSimpleName();
+        String method = joinPoint.getSignature().getName();
+        if (result instanceof Mono<?> mono) {
+            return Mono.defer(() -> {
+                Timer.Sample sample = Timer.start(meterRegistry);
+                return mono
+                        .doOnSuccess(value -> stop(sample, type, method, "success", null))
+                        .doOnError(e -> stop(sample, type, method, "error", e))
+                        .doOnCancel(() -> stop(sample, type, method, "cancelled", null));
+            });
+        } else if (result instanceof Flux<?> flux) {
+            return Flux.defer(() -> {
+                Timer.Sample sample = Timer.start(meterRegistry);
+                return flux
+                        .doOnComplete(() -> stop(sample, type, method, "success", null))
+                        .doOnError(e -> stop(sample, type, method, "error", e))
+                        .doOnCancel(() -> stop(sample, type, method, "cancelled", null));
+            });
         }
         return result;
     }
-}
\ No newline at end of file
+
+    private void stop(Timer.Sample sample, String type, String method, String outcome, Throwable error) {
+        TimerKey key = new TimerKey(type, method, outcome, error != null ? error.getClass().getSimpleName() : "none");
+        sample.stop(timers.computeIfAbsent(key, this::timer));
+    }
+
+    private Timer timer(TimerKey key) {
+        return Timer.builder(METRIC)
+                .description("Duración de métodos reactivos anotados con @ReactiveLog")
+                .tag("class", key.type())
+                .tag("method", key.method())
+                .tag("outcome", key.outcome())
+                .tag("exception", key.exception())
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private record TimerKey(String type, String method, String outcome, String exception) {
+    }
+}
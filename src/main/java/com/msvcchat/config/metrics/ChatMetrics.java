@@ -0,0 +1,73 @@
+package com.msvcchat.config.metrics;
+
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Métricas de la capa WebSocket. La etiqueta {@code room} solo toma el roomId de las salas de
+ * {@code chat.metrics.room-allow-list}; el resto se agrupa en "other" para acotar la cardinalidad.
+ */
+@Component
+public class ChatMetrics {
+
+    public static final String OTHER_ROOMS = "other";
+
+    private final MeterRegistry meterRegistry;
+    private final Set<String> roomAllowList;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final Map<String, RoomMeters> roomMeters = new ConcurrentHashMap<>();
+
+    public ChatMetrics(MeterRegistry meterRegistry, ChatProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.roomAllowList = Set.copyOf(properties.getMetrics().getRoomAllowList());
+        Gauge.builder("chat.sessions.active", activeSessions, AtomicInteger::get)
+                .description("Sesiones WebSocket abiertas en esta instancia")
+                .register(meterRegistry);
+    }
+
+    public void sessionOpened() {
+        activeSessions.incrementAndGet();
+    }
+
+    public void sessionClosed() {
+        activeSessions.decrementAndGet();
+    }
+
+    public String roomTag(String roomId) {
+        return roomAllowList.contains(roomId) ? roomId : OTHER_ROOMS;
+    }
+
+    /** Medidores de la sala; se resuelven una vez por sesión, no por mensaje. */
+    public RoomMeters forRoom(String roomId) {
+        return roomMeters.computeIfAbsent(roomTag(roomId), this::createRoomMeters);
+    }
+
+    private RoomMeters createRoomMeters(String room) {
+        return new RoomMeters(
+                Counter.builder("chat.messages.in")
+                        .description("Mensajes recibidos de los clientes")
+                        .tag("room", room)
+                        .register(meterRegistry),
+                Counter.builder("chat.messages.out")
+                        .description("Frames de mensaje entregados a sesiones")
+                        .tag("room", room)
+                        .register(meterRegistry),
+                Timer.builder("chat.fanout.latency")
+                        .description("Desde la publicación en la sala hasta el envío a cada sesión")
+                        .tag("room", room)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+
+    public record RoomMeters(Counter messagesIn, Counter messagesOut, Timer fanoutLatency) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.msvcchat.config.metrics;
+
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Red de seguridad por si alguna métrica chat.* etiqueta con roomId sin pasar por
+     * {@link ChatMetrics#roomTag}: por encima del allow-list los valores nuevos se descartan.
+     */
+    @Bean
+    public MeterFilter chatRoomCardinalityLimit(ChatProperties properties) {
+        int maxRooms = properties.getMetrics().getRoomAllowList().size() + 1;
+        return MeterFilter.maximumAllowableTags("chat", "room", maxRooms, MeterFilter.deny());
+    }
+}
@@ -0,0 +1,22 @@
+package com.msvcchat.config.reactor;
+
+import com.msvcchat.config.ChatProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+@Configuration
+public class SchedulerConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler chatInboundScheduler(ChatProperties properties) {
+        ChatProperties.Inbound inbound = properties.getInbound();
+        if (inbound.isVirtualThreads()) {
+            return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "chat-inbound");
+        }
+        return Schedulers.newParallel("chat-inbound", inbound.getWorkerThreads());
+    }
+}
@@ -0,0 +1,31 @@
+package com.msvcchat.config.reactor;
+
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emisión sobre sinks compartidos por varios hilos. {@code tryEmitNext} devuelve
+ * {@link Sinks.EmitResult#FAIL_NON_SERIALIZED} si otro hilo está emitiendo a la vez;
+ * aquí se reintenta en espera activa durante un tiempo acotado en lugar de perder el elemento.
+ */
+public final class SinkEmitters {
+
+    private static final long MAX_CONTENTION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private SinkEmitters() {
+    }
+
+    public static <T> Sinks.EmitResult emitNext(Sinks.Many<T> sink, T value) {
+        Sinks.EmitResult result = sink.tryEmitNext(value);
+        if (result != Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+            return result;
+        }
+        long deadline = System.nanoTime() + MAX_CONTENTION_NANOS;
+        while (result == Sinks.EmitResult.FAIL_NON_SERIALIZED && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+            result = sink.tryEmitNext(value);
+        }
+        return result;
+    }
+}
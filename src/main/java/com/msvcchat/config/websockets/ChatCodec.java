@@ -0,0 +1,52 @@
+package com.msvcchat.config.websockets;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.msvcchat.DTOs.InboundFrame;
+import com.msvcchat.entity.ChatMessage;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.io.IOException;
+
+/**
+ * Serialización JSON de los frames del chat con el {@link ObjectMapper} de Spring
+ * (módulo java.time, fechas ISO-8601, propiedades desconocidas ignoradas).
+ */
+@Component
+public class ChatCodec {
+
+    private final ObjectReader frameReader;
+    private final ObjectWriter writer;
+
+    public ChatCodec(ObjectMapper mapper) {
+        this.frameReader = mapper.readerFor(InboundFrame.class);
+        this.writer = mapper.writer();
+    }
+
+    public InboundFrame decode(byte[] json) throws IOException {
+        return frameReader.readValue(json);
+    }
+
+    public ChatFrame encode(ChatMessage message) {
+        return new ChatFrame(message, write(message), System.nanoTime());
+    }
+
+    public byte[] write(Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("No se pudo serializar " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Frame de texto que envuelve el payload sin copiarlo; varias sesiones pueden compartir el mismo array.
+     */
+    public WebSocketMessage toMessage(WebSocketSession session, byte[] payload) {
+        return new WebSocketMessage(WebSocketMessage.Type.TEXT, session.bufferFactory().wrap(payload));
+    }
+}
@@ -0,0 +1,11 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.entity.ChatMessage;
+
+/**
+ * Mensaje ya serializado. Se codifica una vez al publicarlo en la sala y todas las sesiones
+ * comparten el mismo {@code payload}, que no debe modificarse. {@code publishedAt} es el
+ * {@link System#nanoTime()} de la publicación, para medir la latencia del fan-out.
+ */
+public record ChatFrame(ChatMessage message, byte[] payload, long publishedAt) {
+}
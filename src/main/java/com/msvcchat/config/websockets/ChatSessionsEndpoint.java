@@ -0,0 +1,58 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.DTOs.ChatSessionDto;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@code /actuator/chatsessions}: sesiones de esta instancia ordenadas por bytes retenidos en su
+ * buffer de salida, filtrables por sala; {@code DELETE /actuator/chatsessions/{id}} la cierra. Se
+ * sirve en el puerto de gestión y en solo lectura salvo con
+ * {@code management.endpoint.chatsessions.access=unrestricted}.
+ */
+@Component
+@Endpoint(id = "chatsessions")
+@RequiredArgsConstructor
+public class ChatSessionsEndpoint {
+
+    public static final CloseStatus CLOSED_BY_OPERATOR = new CloseStatus(4010, "closed by operator");
+    private static final int DEFAULT_TOP = 100;
+
+    private final SessionRegistry sessions;
+
+    @ReadOperation
+    public List<ChatSessionDto> sessions(@Nullable String roomId, @Nullable Integer top) {
+        return sessions.all().stream()
+                .filter(stats -> roomId == null || roomId.equals(stats.roomId()))
+                .map(SessionStats::view)
+                .sorted(Comparator.comparingLong(ChatSessionDto::bufferedBytes).reversed()
+                        .thenComparing(Comparator.comparingLong(ChatSessionDto::ageSeconds).reversed()))
+                .limit(top != null ? top : DEFAULT_TOP)
+                .toList();
+    }
+
+    @ReadOperation
+    public ChatSessionDto session(@Selector String id) {
+        SessionStats stats = sessions.get(id);
+        return stats != null ? stats.view() : null;
+    }
+
+    @DeleteOperation
+    public boolean close(@Selector String id) {
+        SessionStats stats = sessions.get(id);
+        if (stats == null) {
+            return false;
+        }
+        stats.session().close(CLOSED_BY_OPERATOR).subscribe();
+        return true;
+    }
+}
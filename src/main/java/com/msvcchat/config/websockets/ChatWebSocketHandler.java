@@ -1,96 +1,261 @@
 package com.msvcchat.config.websockets;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.msvcchat.DTOs.AckFrame;
+import com.msvcchat.DTOs.ErrorFrame;
+import com.msvcchat.DTOs.GapFrame;
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.DTOs.HistoryQuery;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.config.metrics.ChatMetrics;
+import com.msvcchat.config.reactor.SinkEmitters;
 import com.msvcchat.entity.ChatMessage;
-import com.msvcchat.repositories.ChatMessageRepository;
+import com.msvcchat.service.ChatHistoryService;
+import com.msvcchat.service.MessageWriteBehind;
+import com.msvcchat.service.ReadReceiptService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.socket.CloseStatus;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 @Component
 @RequiredArgsConstructor
 public class ChatWebSocketHandler implements WebSocketHandler {
 
-    private final ChatMessageRepository repo;
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final Map<String, Sinks.Many<ChatMessage>> sinks = new ConcurrentHashMap<>();
-    private final ReactiveMongoTemplate mongoTemplate;
-
-//    public ChatWebSocketHandler(ChatMessageRepository repo, ReactiveMongoTemplate mongoTemplate) {
-//        this.repo = repo;
-//        this.mongoTemplate = mongoTemplate;
-//        startChangeStreamListener(); // inicializa escucha global
-//    }
-
-    private Sinks.Many<ChatMessage> sinkFor(String roomId) {
-        return sinks.computeIfAbsent(roomId, rid -> Sinks.many().multicast().onBackpressureBuffer());
-    }
+    private final MessageWriteBehind writeBehind;
+    private final ChatProperties properties;
+    private final ChatCodec codec;
+    private final RoomChannelRegistry rooms;
+    private final RecentMessageCache recentMessages;
+    private final SessionOutbound sessionOutbound;
+    private final InboundPipeline inboundPipeline;
+    private final EphemeralEvents ephemeralEvents;
+    private final ReadReceiptService receipts;
+    private final RecentClientIds clientIds;
+    private final ChatHistoryService historyService;
+    private final SessionRegistry sessions;
+    private final SessionHeartbeat heartbeat;
+    private final FloodControl floodControl;
+    private final ChatMetrics metrics;
 
     @Override
     public Mono<Void> handle(WebSocketSession session) {
         String path = session.getHandshakeInfo().getUri().getPath();
         String roomId = path.substring(path.lastIndexOf('/') + 1);
-        Sinks.Many<ChatMessage> sink = sinkFor(roomId);
-
-        Mono<Void> inbound = session.receive()
-                .map(WebSocketMessage::getPayloadAsText)
-                .flatMap(text -> {
-                    try {
-                        ChatMessage msg = mapper.readValue(text, ChatMessage.class);
-                        msg.setRoomId(roomId);
-                        return repo.save(msg)
-                                .doOnNext(saved -> sink.tryEmitNext(saved));
-                    } catch (Exception e) {
+        String userId = (String) session.getAttributes().get(RoomAuthorizingHandshakeService.USER_ID);
+        String userRole = (String) session.getAttributes().get(RoomAuthorizingHandshakeService.USER_ROLE);
+        SessionStats stats = sessions.register(session, roomId, userId);
+        if (!sessions.isAccepting()) {
+            // la instancia se está vaciando: que reconecte en otra
+            sessions.unregister(session);
+            return session.close(CloseStatus.SERVICE_RESTARTED);
+        }
+        // el canal se libera al terminar la sesión, sea por cierre, error, cancelación o inactividad
+        return Mono.using(() -> rooms.acquire(roomId), room -> handle(session, room, userId, userRole, stats), rooms::release)
+                .doFirst(metrics::sessionOpened)
+                .doFinally(signal -> {
+                    metrics.sessionClosed();
+                    sessions.unregister(session);
+                });
+    }
+
+    private Mono<Void> handle(WebSocketSession session, RoomChannel room, String userId, String userRole,
+                              SessionStats stats) {
+        String roomId = room.roomId();
+        ChatMetrics.RoomMeters meters = metrics.forRoom(roomId);
+        FloodControl.Limiter limiter = floodControl.newSession();
+        // las confirmaciones de lectura tienen su propio límite de sesión y no gastan el de mensajes
+        FloodControl.Limiter readLimiter = floodControl.newSession();
+        // frames dirigidos solo a esta sesión (acks); acotados por maxPendingPerSession
+        Sinks.Many<WebSocketMessage> control = Sinks.many().unicast().onBackpressureBuffer();
+
+        // decodificación en paralelo fuera del event loop; el orden de llegada se conserva
+        Mono<Void> inbound = inboundPipeline.decode(session.receive()
+                        .doOnNext(stats::received)
+                        .filter(message -> message.getType() == WebSocketMessage.Type.TEXT)
+                        .map(InboundPipeline::payload))
+                .flatMap(frame -> {
+                    if (frame.isTyping()) {
+                        // efímero: ni se persiste ni se secuencia con los mensajes
+                        ephemeralEvents.typing(room, userId, Boolean.TRUE.equals(frame.active()));
                         return Mono.empty();
                     }
-                })
+                    if (frame.isRead()) {
+                        Mono<Void> throttled = throttle(session, control, readLimiter, null);
+                        return throttled != null ? throttled : markRead(room, userId, frame.messageId());
+                    }
+                    if (!frame.isMessage()) {
+                        return Mono.empty();
+                    }
+                    Mono<Void> throttled = throttle(session, control, limiter, userId);
+                    if (throttled != null) {
+                        return throttled;
+                    }
+                    meters.messagesIn().increment();
+                    stats.messageIn();
+                    // firmado con la identidad del handshake, nunca con la que diga el frame
+                    ChatMessage msg = frame.toMessage(userId, userRole);
+                    msg.setRoomId(roomId);
+                    msg.setOriginNode(properties.getCluster().getInstanceId());
+                    return room.sequence(msg, m -> accept(session, control, room, m));
+                }, properties.getPersistence().getMaxPendingPerSession())
                 .then();
 
-        Flux<WebSocketMessage> outbound = sink.asFlux()
-                .map(m -> {
-                    try { return mapper.writeValueAsString(m); } catch (Exception e) { return "{}";}
-                })
-                .map(session::textMessage);
+        // al conectar: últimos N mensajes, la página indicada por el cursor del handshake o, al
+        // reconectar, lo posterior a lastSeen; desde la caché de la sala si la cubre
+        MultiValueMap<String, String> params =
+                UriComponentsBuilder.fromUri(session.getHandshakeInfo().getUri()).build().getQueryParams();
+        AtomicReference<HistoryCursor> replayed = new AtomicReference<>();
+        Flux<Mono<WebSocketMessage>> history = historyService
+                .resume(roomId, HistoryQuery.fromParams(params), params.getFirst("lastSeen"))
+                .flatMapMany(query -> replay(session, room, query, replayed));
+
+        // cada mensaje llega ya serializado; aquí solo se envuelve el payload compartido. Los frames se
+        // evalúan al enviarse, así se descarta lo que ya iba en el historial
+        Flux<Mono<WebSocketMessage>> outbound = sessionOutbound.bound(room.asFlux().doOnNext(stats::buffered),
+                session, roomId,
+                frame -> Mono.fromSupplier(() -> {
+                    stats.released(frame);
+                    HistoryCursor last = replayed.get();
+                    if (last != null && HistoryCursor.compare(frame.message(), last.createdAt(), last.id()) <= 0) {
+                        return null;
+                    }
+                    meters.messagesOut().increment();
+                    meters.fanoutLatency().record(System.nanoTime() - frame.publishedAt(), TimeUnit.NANOSECONDS);
+                    return codec.toMessage(session, frame.payload());
+                }),
+                gap -> Mono.fromSupplier(() -> codec.toMessage(session, codec.write(gap))),
+                stats::released);
+
+        // mergeSequential se suscribe a la sala ya: lo publicado durante la reproducción espera en el
+        // buffer de la sesión en vez de perderse
+        Flux<WebSocketMessage> frames = Flux.mergeSequential(history, outbound)
+                .concatMap(Function.identity());
+
+        // escritura y presencia: se descartan antes que los mensajes si la sesión va lenta
+        Flux<WebSocketMessage> ephemeral = ephemeralEvents.session(room, userId)
+                .map(payload -> codec.toMessage(session, payload));
 
-        // cuando cliente se conecta, opcional: enviar historial reciente
-        Flux<WebSocketMessage> history = repo.findByRoomIdOrderByCreatedAtAsc(roomId)
-                .map(m -> {
-                    try { return mapper.writeValueAsString(m); } catch (Exception e) { return "{}"; }
+        Mono<Void> connection = session.send(Flux.merge(frames, control.asFlux(), ephemeral, heartbeat.pings(session))
+                        .doOnNext(stats::sent))
+                .and(inbound);
+        // una sesión muerta no contesta al cierre: el watchdog la termina y así se libera la sala
+        return Mono.firstWithSignal(connection, heartbeat.watchdog(session, stats));
+    }
+
+    /**
+     * Reproduce el historial pedido. Si lo posterior a {@code since} no cabe en una página, tras ella
+     * va un aviso de hueco para que el cliente pida el resto por REST en vez de perderlo.
+     */
+    private Flux<Mono<WebSocketMessage>> replay(WebSocketSession session, RoomChannel room, HistoryQuery query,
+                                                AtomicReference<HistoryCursor> replayed) {
+        AtomicInteger count = new AtomicInteger();
+        Flux<Mono<WebSocketMessage>> page = recentMessages.replay(room, query)
+                .map(frame -> {
+                    replayed.set(HistoryCursor.of(frame.message()));
+                    count.incrementAndGet();
+                    return Mono.just(codec.toMessage(session, frame.payload()));
+                });
+        if (query.since() == null) {
+            return page;
+        }
+        return page.concatWith(Mono.defer(() -> count.get() < historyService.limitFor(query)
+                ? Mono.empty()
+                : Mono.just(Mono.fromSupplier(() -> codec.toMessage(session, codec.write(GapFrame.of(room.roomId(), replayed.get())))))));
+    }
+
+    private Mono<Void> accept(WebSocketSession session, Sinks.Many<WebSocketMessage> control,
+                              RoomChannel room, ChatMessage msg) {
+        String clientMsgId = msg.getClientMsgId();
+        if (clientMsgId != null) {
+            // bajo el orden de la sala: dos reintentos simultáneos no pasan los dos
+            RecentClientIds.Accepted original = clientIds.find(room.roomId(), clientMsgId);
+            if (original != null) {
+                return original.durable()
+                        .doOnNext(storedId -> sendControl(session, control, AckFrame.duplicate(storedId, clientMsgId)))
+                        .then()
+                        .onErrorResume(e -> Mono.<Void>fromRunnable(() -> sendControl(session, control, AckFrame.failed(original.id(), clientMsgId))));
+            }
+        }
+        // se encola y se difunde ya; el ack llega cuando el lote es durable
+        Mono<String> durable;
+        try {
+            durable = writeBehind.submit(msg);
+        } catch (IllegalStateException e) {
+            sendControl(session, control, AckFrame.failed(msg.getId(), clientMsgId));
+            return Mono.empty();
+        }
+        if (clientMsgId != null) {
+            clientIds.remember(room.roomId(), clientMsgId, msg.getId(), durable);
+        }
+        room.publish(msg);
+        return durable
+                .doOnNext(storedId -> {
+                    if (storedId.equals(msg.getId())) {
+                        sendControl(session, control, AckFrame.persisted(storedId, clientMsgId));
+                        return;
+                    }
+                    // el clientMsgId ya estaba guardado (reintento que este nodo no recordaba): el
+                    // difundido no existe en Mongo, se retira de la caché y se confirma el original
+                    recentMessages.remove(room.roomId(), msg.getId());
+                    sendControl(session, control, AckFrame.duplicate(storedId, clientMsgId));
                 })
-                .map(session::textMessage);
+                .then()
+                .onErrorResume(e -> Mono.<Void>fromRunnable(() -> {
+                    if (clientMsgId != null) {
+                        clientIds.forget(room.roomId(), clientMsgId);
+                    }
+                    sendControl(session, control, AckFrame.failed(msg.getId(), clientMsgId));
+                }));
+    }
 
-        return session.send(Flux.concat(history, outbound)).and(inbound);
+    /** Null si el frame pasa el límite; si no, el aviso al cliente, el descarte o el cierre de la sesión. */
+    private Mono<Void> throttle(WebSocketSession session, Sinks.Many<WebSocketMessage> control,
+                                FloodControl.Limiter limiter, String userId) {
+        return switch (limiter.check(userId)) {
+            case WARN -> {
+                sendControl(session, control, ErrorFrame.rateLimited(limiter.retryAfterMillis()));
+                yield Mono.empty();
+            }
+            case REJECT -> Mono.empty();
+            case DISCONNECT -> session.close(FloodControl.RATE_LIMITED);
+            case ACCEPT -> null;
+        };
     }
 
     /**
-     * Change Stream listener: cuando hay inserts en collection "messages",
-     * emitimos a los sinks locales (para propagar mensajes entre instancias).
-     * Requiere replica set.
+     * Avanza el cursor de lectura hasta un mensaje guardado de la sala, con su createdAt de Mongo y
+     * nunca más allá del último publicado en ella; un id de otra sala o inexistente se ignora. El
+     * cursor se vuelca en lote y la sala solo se entera si avanza.
      */
-    private void startChangeStreamListener() {
-        // escucha sin filtro (puedes filtrar por ns/collection o por roomId)
-        mongoTemplate.changeStream(ChatMessage.class)
-                .listen() // devuelve Flux<ChangeStreamEvent<ChatMessage>>
-                .map(event -> event.getBody()) // ChatMessage
-                .subscribe(msg -> {
-                    if (msg != null && msg.getRoomId() != null) {
-                        Sinks.Many<ChatMessage> s = sinks.get(msg.getRoomId());
-                        if (s != null) {
-                            s.tryEmitNext(msg);
-                        }
+    private Mono<Void> markRead(RoomChannel room, String userId, String messageId) {
+        return historyService.find(room.roomId(), messageId)
+                .map(read -> {
+                    HistoryCursor last = room.lastPublished();
+                    return last != null && HistoryCursor.compare(read, last.createdAt(), last.id()) > 0
+                            ? last
+                            : HistoryCursor.of(read);
+                })
+                .doOnNext(cursor -> {
+                    if (receipts.markRead(room.roomId(), userId, cursor.id(), cursor.createdAt())) {
+                        ephemeralEvents.receipt(room, userId, cursor.id(), cursor.createdAt());
                     }
-                }, err -> {
-                    // en prod haz reintentos/monitorización
-                    err.printStackTrace();
-                });
+                })
+                .then();
+    }
+
+    private void sendControl(WebSocketSession session, Sinks.Many<WebSocketMessage> control, Object frame) {
+        SinkEmitters.emitNext(control, codec.toMessage(session, codec.write(frame)));
     }
 }
@@ -0,0 +1,229 @@
+package com.msvcchat.config.websockets;
+
+import com.mongodb.MongoException;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Difusión entre instancias: un único change stream por instancia sobre "messages", filtrado en el
+ * servidor a inserts de salas con suscriptores locales y que no se originaron en esta instancia.
+ * El resume token se persiste periódicamente para reanudar sin huecos tras un reinicio, y el
+ * stream se reabre con backoff si se cae. Requiere replica set (ver compose.dev.yml).
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.cluster", name = "enabled", havingValue = "true")
+public class ClusterFanout {
+
+    private static final String STATE_COLLECTION = "chat_cluster_state";
+    // ChangeStreamHistoryLost, ChangeStreamFatalError, InvalidResumeToken
+    private static final Set<Integer> UNRESUMABLE = Set.of(286, 280, 260);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final RoomChannelRegistry rooms;
+    private final ChatProperties.Cluster config;
+    private final Counter delivered;
+    private final Counter restarts;
+    private final Disposable.Composite subscriptions = Disposables.composite();
+    // solo se accede desde el pipeline del stream, que es secuencial
+    private final Map<String, Boolean> recentIds;
+    private volatile BsonValue resumeToken;
+    private volatile BsonValue persistedToken;
+    // filtro de salas del stream abierto; null hasta abrir el primero
+    private Set<String> watching;
+
+    public ClusterFanout(ReactiveMongoTemplate mongoTemplate, RoomChannelRegistry rooms,
+                         ChatProperties properties, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.rooms = rooms;
+        this.config = properties.getCluster();
+        if (config.getInstanceId() == null || config.getInstanceId().isBlank()) {
+            // con un id aleatorio cada arranque buscaría otro token y el persistido no se usaría nunca
+            throw new IllegalStateException("chat.cluster.instance-id es obligatorio con chat.cluster.enabled=true");
+        }
+        int window = config.getDedupWindow();
+        this.recentIds = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > window;
+            }
+        };
+        this.delivered = Counter.builder("chat.cluster.delivered")
+                .description("Mensajes de otras instancias entregados a salas locales")
+                .register(meterRegistry);
+        this.restarts = Counter.builder("chat.cluster.restarts")
+                .description("Reaperturas del change stream por error")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscriptions.add(loadToken()
+                .thenMany(rooms.roomsChanged()
+                        .startWith(Boolean.TRUE)
+                        .sample(config.getResubscribeInterval())
+                        .map(changed -> rooms.activeRooms())
+                        .distinctUntilChanged()
+                        .switchMap(this::watch))
+                .subscribe(this::deliver, e -> log.error("Change stream de cluster detenido", e)));
+        subscriptions.add(Flux.interval(config.getTokenFlushInterval())
+                .concatMap(tick -> saveToken())
+                .subscribe());
+        log.info("Difusión de cluster activa para la instancia {}", config.getInstanceId());
+    }
+
+    @PreDestroy
+    void stop() {
+        subscriptions.dispose();
+        saveToken().block(config.getTokenFlushInterval().multipliedBy(5));
+    }
+
+    private Flux<ChatMessage> watch(Set<String> localRooms) {
+        // solo son nuevas las salas que no estaban en el filtro anterior de esta instancia; al
+        // arrancar no hay filtro anterior y el token persistido cubre todas
+        Set<String> added = watching == null ? Set.of() : difference(localRooms, watching);
+        watching = localRooms;
+        if (localRooms.isEmpty()) {
+            return Flux.empty();
+        }
+        // fijado al abrir el filtro, no en cada reintento: un backoff largo no debe dejar huecos
+        Instant[] from = {Instant.now().minus(config.getResubscribeLookback())};
+        return Flux.defer(() -> mongoTemplate.changeStream(null, collection(), options(localRooms, added, from[0]), ChatMessage.class))
+                .doOnNext(event -> resumeToken = event.getResumeToken())
+                .map(ChangeStreamEvent::getBody)
+                .doOnError(this::unresumable, e -> {
+                    log.warn("Resume token inválido o fuera del oplog, se reanuda desde ahora: {}", e.getMessage());
+                    resumeToken = null;
+                    from[0] = Instant.now();
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, config.getMinBackoff())
+                        .maxBackoff(config.getMaxBackoff())
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> {
+                            restarts.increment();
+                            log.warn("Reabriendo change stream de cluster: {}", signal.failure().getMessage());
+                        }));
+    }
+
+    /**
+     * Con token se reanuda siempre tras él; las salas recién añadidas no estaban en el filtro que lo
+     * generó, así que para ellas se acota además a lo creado desde {@code from}. Sin token se
+     * empieza en {@code from}. Lo repetido se descarta por id en {@link #deliver}.
+     */
+    private ChangeStreamOptions options(Set<String> localRooms, Set<String> added, Instant from) {
+        Document match = new Document("operationType", "insert")
+                .append("fullDocument.originNode", new Document("$ne", config.getInstanceId()));
+        if (added.isEmpty()) {
+            match.append("fullDocument.roomId", new Document("$in", new ArrayList<>(localRooms)));
+        } else {
+            match.append("$or", List.of(
+                    new Document("fullDocument.roomId", new Document("$in", new ArrayList<>(difference(localRooms, added)))),
+                    new Document("fullDocument.roomId", new Document("$in", new ArrayList<>(added)))
+                            .append("fullDocument.createdAt", new Document("$gte", Date.from(from)))));
+        }
+        ChangeStreamOptions.ChangeStreamOptionsBuilder builder = ChangeStreamOptions.builder()
+                .filter(new Document("$match", match));
+        BsonValue token = resumeToken;
+        if (token != null) {
+            builder.resumeAfter(token);
+        } else {
+            builder.resumeAt(from);
+        }
+        return builder.build();
+    }
+
+    private static Set<String> difference(Set<String> rooms, Set<String> removed) {
+        Set<String> result = new HashSet<>(rooms);
+        result.removeAll(removed);
+        return result;
+    }
+
+    private void deliver(ChatMessage message) {
+        if (message == null || message.getRoomId() == null || recentIds.put(message.getId(), Boolean.TRUE) != null) {
+            return;
+        }
+        RoomChannel room = rooms.find(message.getRoomId());
+        if (room != null) {
+            room.publishRemote(message);
+            delivered.increment();
+        }
+    }
+
+    private boolean unresumable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof MongoException mongo && UNRESUMABLE.contains(mongo.getCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Mono<Void> loadToken() {
+        return mongoTemplate.findById(config.getInstanceId(), Document.class, STATE_COLLECTION)
+                .doOnNext(state -> {
+                    String data = state.getString("resumeToken");
+                    if (data != null) {
+                        resumeToken = new BsonDocument("_data", new BsonString(data));
+                        persistedToken = resumeToken;
+                        log.info("Reanudando change stream de cluster desde el token persistido");
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("No se pudo leer el resume token: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<Void> saveToken() {
+        BsonValue token = resumeToken;
+        if (token == null || token.equals(persistedToken)) {
+            return Mono.empty();
+        }
+        Update update = Update.update("resumeToken", token.asDocument().getString("_data").getValue())
+                .set("updatedAt", Instant.now());
+        return mongoTemplate.upsert(Query.query(Criteria.where("_id").is(config.getInstanceId())), update, STATE_COLLECTION)
+                .doOnSuccess(result -> persistedToken = token)
+                .onErrorResume(e -> {
+                    log.warn("No se pudo persistir el resume token: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private String collection() {
+        return mongoTemplate.getCollectionName(ChatMessage.class);
+    }
+}
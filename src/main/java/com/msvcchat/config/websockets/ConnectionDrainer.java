@@ -0,0 +1,71 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.service.MessageWriteBehind;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Vaciado ordenado al parar la instancia, antes que el apagado del servidor web (fase más alta):
+ * deja de aceptar handshakes (503), espera a que se confirmen los mensajes en curso para que sus
+ * acks salgan (hasta la mitad de {@code chat.sessions.drain-timeout}), y cierra las sesiones con
+ * 1012 para que los clientes reconecten en otra instancia con {@code lastSeen}. Lo que quede en la
+ * cola lo vacía después {@link MessageWriteBehind}.
+ */
+@Slf4j
+@Component
+public class ConnectionDrainer implements SmartLifecycle {
+
+    private static final Duration POLL = Duration.ofMillis(50);
+
+    private final SessionRegistry sessions;
+    private final MessageWriteBehind writeBehind;
+    private final Duration timeout;
+    private volatile boolean running;
+
+    public ConnectionDrainer(SessionRegistry sessions, MessageWriteBehind writeBehind, ChatProperties properties) {
+        this.sessions = sessions;
+        this.writeBehind = writeBehind;
+        this.timeout = properties.getSessions().getDrainTimeout();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        sessions.stopAccepting();
+        log.info("Vaciando {} sesiones WebSocket", sessions.size());
+        // la persistencia tiene como mucho la mitad del plazo: el cierre con 1012 siempre conserva
+        // el resto, aunque Mongo no responda, para que los clientes reconecten en otra instancia
+        long half = timeout.toNanos() / 2;
+        await(writeBehind.idle(), System.nanoTime() + half);
+        await(sessions.closeAll(CloseStatus.SERVICE_RESTARTED)
+                .then(Flux.interval(Duration.ZERO, POLL).filter(tick -> sessions.size() == 0).next().then()),
+                System.nanoTime() + timeout.toNanos() - half);
+        if (sessions.size() > 0) {
+            log.warn("Quedan {} sesiones abiertas tras {}", sessions.size(), timeout);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private static void await(Mono<Void> step, long deadline) {
+        step.timeout(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))
+                .onErrorResume(TimeoutException.class, e -> Mono.empty())
+                .block();
+    }
+}
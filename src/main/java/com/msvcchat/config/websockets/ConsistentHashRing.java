@@ -0,0 +1,73 @@
+package com.msvcchat.config.websockets;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Anillo de hash consistente inmutable: cada nodo ocupa {@code virtualNodes} puntos y una clave es
+ * del primer punto igual o posterior a su hash. Al entrar o salir un nodo solo cambian de dueño
+ * las claves de sus puntos (~1/N). Búsqueda binaria sobre arrays, sin objetos por consulta.
+ */
+final class ConsistentHashRing<T> {
+
+    private final long[] points;
+    private final Object[] owners;
+    private final List<T> nodes;
+
+    ConsistentHashRing(Collection<T> nodes, Function<T, String> key, int virtualNodes) {
+        this.nodes = List.copyOf(nodes);
+        int size = this.nodes.size() * virtualNodes;
+        long[] hashes = new long[size];
+        Object[] byHash = new Object[size];
+        Integer[] order = new Integer[size];
+        int i = 0;
+        for (T node : this.nodes) {
+            String nodeKey = key.apply(node);
+            for (int v = 0; v < virtualNodes; v++) {
+                hashes[i] = hash(nodeKey + "#" + v);
+                byHash[i] = node;
+                order[i] = i;
+                i++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.points = new long[size];
+        this.owners = new Object[size];
+        for (int j = 0; j < size; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = byHash[order[j]];
+        }
+    }
+
+    /** Dueño de la clave; null si el anillo está vacío. */
+    @SuppressWarnings("unchecked")
+    T owner(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return (T) owners[index == points.length ? 0 : index];
+    }
+
+    List<T> nodes() {
+        return nodes;
+    }
+
+    /** FNV-1a de 64 bits con el mezclado final de SplitMix64 para repartir bien claves parecidas. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,100 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.DTOs.PresenceFrame;
+import com.msvcchat.DTOs.ReceiptFrame;
+import com.msvcchat.DTOs.TypingFrame;
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Avisos de escritura, lectura y presencia por el mismo WebSocket que los mensajes, sin pasar por Mongo.
+ * Los de escritura se agrupan por usuario y sala ({@code chat.ephemeral.typing-interval}); en la
+ * salida de cada sesión son lo primero que se descarta si el cliente no da abasto. Solo llegan a
+ * las sesiones de esta instancia.
+ */
+@Component
+public class EphemeralEvents {
+
+    private final ChatCodec codec;
+    private final long typingIntervalNanos;
+    private final Counter typingSent;
+    private final Counter typingCoalesced;
+    private final Counter dropped;
+
+    public EphemeralEvents(ChatCodec codec, ChatProperties properties, MeterRegistry meterRegistry) {
+        this.codec = codec;
+        this.typingIntervalNanos = properties.getEphemeral().getTypingInterval().toNanos();
+        this.typingSent = Counter.builder("chat.ephemeral.typing")
+                .description("Avisos de escritura difundidos")
+                .tag("result", "sent")
+                .register(meterRegistry);
+        this.typingCoalesced = Counter.builder("chat.ephemeral.typing")
+                .description("Avisos de escritura difundidos")
+                .tag("result", "coalesced")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("chat.ephemeral.dropped")
+                .description("Eventos efímeros descartados por sesiones lentas")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Eventos efímeros para una sesión: primero quién está en línea, después los cambios. Mientras
+     * está suscrita cuenta como presencia del usuario en la sala.
+     */
+    public Flux<byte[]> session(RoomChannel room, String userId) {
+        Flux<byte[]> events = Flux.defer(() -> {
+            RoomPresence presence = room.presence();
+            // la sala se escucha antes de tomar la foto de presencia: lo que cambie entre medias espera
+            // aquí y sale detrás de la foto. mergeSequential no sirve, se suscribe a la foto primero
+            Sinks.Many<byte[]> pending = Sinks.many().unicast().onBackpressureBuffer();
+            Disposable listening = room.ephemeral()
+                    .filter(frame -> !userId.equals(frame.userId()))
+                    .subscribe(frame -> pending.tryEmitNext(frame.payload()), pending::tryEmitError,
+                            pending::tryEmitComplete);
+            if (presence.join(userId)) {
+                room.publishEphemeral(frame(userId, PresenceFrame.online(room.roomId(), List.of(userId))));
+            }
+            Mono<byte[]> snapshot = Mono.fromSupplier(() -> {
+                Set<String> online = presence.online();
+                return codec.write(PresenceFrame.online(room.roomId(), online));
+            });
+            return Flux.concat(snapshot, pending.asFlux())
+                    .doFinally(signal -> listening.dispose());
+        });
+        return events
+                .onBackpressureDrop(frame -> dropped.increment())
+                .doFinally(signal -> {
+                    if (room.presence().leave(userId)) {
+                        room.publishEphemeral(frame(userId, PresenceFrame.offline(room.roomId(), userId)));
+                    }
+                });
+    }
+
+    public void typing(RoomChannel room, String userId, boolean active) {
+        if (room.presence().typing(userId, active, System.nanoTime(), typingIntervalNanos)) {
+            room.publishEphemeral(frame(userId, TypingFrame.of(room.roomId(), userId, active)));
+            typingSent.increment();
+        } else {
+            typingCoalesced.increment();
+        }
+    }
+
+    /** Aviso de lectura; solo se difunde cuando el cursor del usuario avanza. */
+    public void receipt(RoomChannel room, String userId, String messageId, Instant createdAt) {
+        room.publishEphemeral(frame(userId, ReceiptFrame.of(room.roomId(), userId, messageId, createdAt)));
+    }
+
+    private EphemeralFrame frame(String userId, Object event) {
+        return new EphemeralFrame(userId, codec.write(event));
+    }
+}
@@ -0,0 +1,8 @@
+package com.msvcchat.config.websockets;
+
+/**
+ * Evento efímero ya serializado (escritura, presencia). No se persiste ni se guarda en la caché
+ * de la sala; {@code userId} permite no devolvérselo a quien lo originó.
+ */
+public record EphemeralFrame(String userId, byte[] payload) {
+}
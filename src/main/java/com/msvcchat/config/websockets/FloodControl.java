@@ -0,0 +1,110 @@
+package com.msvcchat.config.websockets;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Límite de mensajes entrantes por sesión y por usuario, con {@link TokenBucket}. El primer rechazo
+ * de una racha se avisa al cliente con un frame de error; si la racha llega a
+ * {@code chat.rate-limit.max-violations} la sesión se cierra con {@link #RATE_LIMITED}.
+ */
+@Component
+public class FloodControl {
+
+    public static final CloseStatus RATE_LIMITED = new CloseStatus(4029, "rate limited");
+
+    public enum Decision {
+        /** Se acepta el mensaje. */
+        ACCEPT,
+        /** Primer rechazo de la racha: se avisa al cliente. */
+        WARN,
+        /** Rechazo silencioso dentro de una racha ya avisada. */
+        REJECT,
+        /** Demasiados rechazos seguidos: se cierra la sesión. */
+        DISCONNECT
+    }
+
+    private final ChatProperties.RateLimit config;
+    private final Cache<String, TokenBucket> users;
+    private final Function<String, TokenBucket> newUserBucket;
+    private final Counter sessionRejected;
+    private final Counter userRejected;
+    private final Counter disconnected;
+
+    public FloodControl(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.config = properties.getRateLimit();
+        // un bucket inactivo más allá de lo que tarda en llenarse ya no limita nada: se puede soltar
+        this.users = Caffeine.newBuilder()
+                .expireAfterAccess(config.getUserIdleExpiry())
+                .maximumSize(config.getMaxTrackedUsers())
+                .build();
+        this.newUserBucket = userId -> new TokenBucket(config.getUserRate(), config.getUserBurst());
+        this.sessionRejected = rejected(meterRegistry, "session");
+        this.userRejected = rejected(meterRegistry, "user");
+        this.disconnected = Counter.builder("chat.ratelimit.disconnected")
+                .description("Sesiones cerradas por superar el límite de forma repetida")
+                .register(meterRegistry);
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, String scope) {
+        return Counter.builder("chat.ratelimit.rejected")
+                .description("Mensajes entrantes rechazados por límite de ritmo")
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+
+    public Limiter newSession() {
+        return new Limiter();
+    }
+
+    /**
+     * Estado de una sesión. Los frames de una sesión se procesan de uno en uno, así que la racha
+     * no necesita ser atómica; los buckets sí, porque el de usuario se comparte entre sesiones.
+     */
+    public final class Limiter {
+
+        private final TokenBucket session = new TokenBucket(config.getSessionRate(), config.getSessionBurst());
+        private int violations;
+        private long retryAfterNanos;
+
+        /** @param userId clave del límite por usuario; null para aplicar solo el de la sesión */
+        public Decision check(String userId) {
+            if (!config.isEnabled()) {
+                return Decision.ACCEPT;
+            }
+            long now = System.nanoTime();
+            long wait = session.tryAcquire(now);
+            if (wait > 0) {
+                sessionRejected.increment();
+            } else if (userId != null) {
+                wait = users.get(userId, newUserBucket).tryAcquire(now);
+                if (wait > 0) {
+                    userRejected.increment();
+                }
+            }
+            if (wait == 0) {
+                violations = 0;
+                return Decision.ACCEPT;
+            }
+            retryAfterNanos = wait;
+            if (++violations >= config.getMaxViolations()) {
+                disconnected.increment();
+                return Decision.DISCONNECT;
+            }
+            return violations == 1 ? Decision.WARN : Decision.REJECT;
+        }
+
+        /** Espera sugerida tras el último rechazo. */
+        public long retryAfterMillis() {
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+        }
+    }
+}
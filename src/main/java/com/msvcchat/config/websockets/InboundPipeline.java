@@ -0,0 +1,59 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.DTOs.InboundFrame;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+
+/**
+ * Etapa de entrada: decodifica los frames de una sesión en el scheduler {@code chatInboundScheduler}
+ * con {@code flatMapSequential}, así el JSON no se parsea en el event loop de Netty y los
+ * mensajes salen en el mismo orden en que llegaron. Los frames mal formados se descartan.
+ */
+@Component
+public class InboundPipeline {
+
+    private final ChatCodec codec;
+    private final Scheduler scheduler;
+    private final int concurrency;
+    private final Counter malformed;
+
+    public InboundPipeline(ChatCodec codec, @Qualifier("chatInboundScheduler") Scheduler scheduler,
+                           ChatProperties properties, MeterRegistry meterRegistry) {
+        this.codec = codec;
+        this.scheduler = scheduler;
+        this.concurrency = properties.getInbound().getDecodeConcurrency();
+        this.malformed = Counter.builder("chat.inbound.malformed")
+                .description("Frames entrantes descartados por JSON inválido")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Copia el payload en el event loop, antes de que Netty libere el buffer.
+     */
+    public static byte[] payload(WebSocketMessage message) {
+        DataBuffer buffer = message.getPayload();
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        return bytes;
+    }
+
+    public Flux<InboundFrame> decode(Flux<byte[]> frames) {
+        return frames.flatMapSequential(bytes -> Mono.fromCallable(() -> codec.decode(bytes))
+                        .subscribeOn(scheduler)
+                        .onErrorResume(IOException.class, e -> {
+                            malformed.increment();
+                            return Mono.empty();
+                        }),
+                concurrency);
+    }
+}
@@ -0,0 +1,13 @@
+package com.msvcchat.config.websockets;
+
+/**
+ * Qué hacer cuando el buffer de salida de una sesión lenta se llena.
+ */
+public enum OverflowPolicy {
+    /** Descarta los mensajes más antiguos pendientes de esa sesión. */
+    DROP_OLDEST,
+    /** Cierra la sesión con {@link SessionOutbound#SLOW_CONSUMER}; el cliente reconecta con cursor. */
+    DISCONNECT,
+    /** Descarta los más antiguos y los resume en un único frame "gap" con el cursor desde el que recargar. */
+    COALESCE
+}
@@ -0,0 +1,63 @@
+package com.msvcchat.config.websockets;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Ids de cliente aceptados hace poco en esta instancia, para contestar a un reintento con el ack
+ * del original sin difundirlo ni escribir de nuevo. Es un filtro acotado: lo que ya no recuerda
+ * (por tamaño, antigüedad o reinicio) lo para el índice único {@code room_client_msg_idx}.
+ */
+@Component
+public class RecentClientIds {
+
+    private final Cache<String, Accepted> recent;
+    private final Counter duplicates;
+
+    public RecentClientIds(ChatProperties properties, MeterRegistry meterRegistry) {
+        ChatProperties.Dedup config = properties.getDedup();
+        this.recent = Caffeine.newBuilder()
+                .maximumSize(config.getMaximumSize())
+                .expireAfterWrite(config.getRetention())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, recent, "client-message-ids");
+        this.duplicates = Counter.builder("chat.messages.duplicates")
+                .description("Reintentos de mensajes ya aceptados, contestados sin persistir")
+                .register(meterRegistry);
+    }
+
+    /** Mensaje ya aceptado con ese id de cliente en la sala, o null. */
+    public Accepted find(String roomId, String clientMsgId) {
+        Accepted accepted = recent.getIfPresent(key(roomId, clientMsgId));
+        if (accepted != null) {
+            duplicates.increment();
+        }
+        return accepted;
+    }
+
+    public void remember(String roomId, String clientMsgId, String id, Mono<String> durable) {
+        recent.put(key(roomId, clientMsgId), new Accepted(id, durable));
+    }
+
+    /** Olvida un envío que no llegó a persistirse, para que el reintento pase. */
+    public void forget(String roomId, String clientMsgId) {
+        recent.invalidate(key(roomId, clientMsgId));
+    }
+
+    private static String key(String roomId, String clientMsgId) {
+        return roomId + ":" + clientMsgId;
+    }
+
+    /**
+     * @param durable id con que el original quedó durable; repite su resultado a quien llegue tarde
+     */
+    public record Accepted(String id, Mono<String> durable) {
+    }
+}
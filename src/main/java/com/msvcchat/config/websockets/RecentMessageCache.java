@@ -0,0 +1,431 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.DTOs.HistoryQuery;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.service.ChatHistoryService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mensajes recientes de cada sala, ya serializados, para reproducir el historial al conectar sin ir
+ * a Mongo. Cada sala guarda un anillo ordenado de hasta {@code chat.history.cache-room-capacity}
+ * frames, sembrado con la primera carga en frío y alimentado después por {@link RoomChannel#publish}.
+ * La memoria total está acotada por {@code chat.history.cache-max-memory}, que cuenta también los
+ * huecos del anillo: este crece a medida que llegan mensajes, así una sala con poco tráfico no reserva
+ * la capacidad entera. Al superarla se descartan salas completas, empezando por la que lleva más
+ * tiempo sin leerse.
+ *
+ * <p>Una sala solo se guarda mientras tiene canal en esta instancia, que es cuando recibe todos sus
+ * mensajes; con varias instancias eso requiere la difusión de cluster activa.
+ */
+@Slf4j
+@Component
+public class RecentMessageCache {
+
+    // coste aproximado de un frame además de su payload: ChatMessage, sus strings y cabeceras
+    private static final long FRAME_OVERHEAD = 128;
+    // cada hueco del anillo es una referencia
+    private static final long SLOT_BYTES = 8;
+    private static final int INITIAL_SLOTS = 16;
+    private static final ChatFrame[] EMPTY = new ChatFrame[0];
+
+    private final ChatHistoryService historyService;
+    private final ChatCodec codec;
+    private final boolean enabled;
+    private final int roomCapacity;
+    private final long maxBytes;
+    private final Map<String, RoomBuffer> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock eviction = new ReentrantLock();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public RecentMessageCache(ChatProperties properties, ChatCodec codec, ChatHistoryService historyService,
+                              MeterRegistry meterRegistry) {
+        ChatProperties.History history = properties.getHistory();
+        this.historyService = historyService;
+        this.codec = codec;
+        this.enabled = history.isCacheEnabled();
+        this.roomCapacity = Math.max(1, history.getCacheRoomCapacity());
+        this.maxBytes = history.getCacheMaxMemory().toBytes();
+        this.hits = requests(meterRegistry, "hit");
+        this.misses = requests(meterRegistry, "miss");
+        this.evictions = Counter.builder("chat.history.cache.evictions")
+                .description("Salas descartadas de la caché por el presupuesto de memoria")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.cache.bytes", usedBytes, AtomicLong::get)
+                .description("Memoria estimada ocupada por la caché de mensajes recientes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("chat.history.cache.rooms", buffers, Map::size)
+                .description("Salas con mensajes recientes en memoria")
+                .register(meterRegistry);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.history.cache.requests")
+                .description("Reproducciones de historial servidas desde memoria (hit) o desde Mongo (miss)")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Historial de la sala en orden cronológico, desde memoria si la caché cubre el rango pedido.
+     * Si la sala aún no está en caché, la primera carga trae los últimos mensajes y la siembra.
+     */
+    public Flux<ChatFrame> replay(RoomChannel room, HistoryQuery query) {
+        if (!enabled) {
+            return fromStore(room.roomId(), query);
+        }
+        return Flux.defer(() -> {
+            int limit = historyService.limitFor(query);
+            RoomBuffer buffer = buffers.get(room.roomId());
+            List<ChatFrame> page = buffer != null ? buffer.read(query, limit) : null;
+            if (page != null) {
+                hits.increment();
+                return Flux.fromIterable(page);
+            }
+            misses.increment();
+            return buffer == null ? seed(room, query, limit) : fromStore(room.roomId(), query);
+        });
+    }
+
+    /** Llamado por el canal de la sala con cada mensaje publicado. */
+    void append(String roomId, ChatFrame frame) {
+        RoomBuffer buffer = buffers.get(roomId);
+        if (buffer != null) {
+            buffer.append(frame);
+            evictIfOverBudget();
+        }
+    }
+
+    /** Retira un mensaje difundido que al final no se guardó. */
+    void remove(String roomId, String messageId) {
+        RoomBuffer buffer = buffers.get(roomId);
+        if (buffer != null) {
+            buffer.remove(messageId);
+        }
+    }
+
+    /** Llamado al liberar el canal de la sala: sin canal deja de recibir mensajes y no es fiable. */
+    void invalidate(String roomId) {
+        RoomBuffer buffer = buffers.get(roomId);
+        if (buffer != null) {
+            discard(buffer);
+        }
+    }
+
+    private Flux<ChatFrame> seed(RoomChannel room, HistoryQuery query, int limit) {
+        String roomId = room.roomId();
+        // el buffer existe antes de consultar para no perder lo que se publique durante la carga
+        RoomBuffer buffer = new RoomBuffer(roomId, room.lastPublished());
+        if (buffers.putIfAbsent(roomId, buffer) != null) {
+            return fromStore(roomId, query);
+        }
+        return historyService.latest(roomId, roomCapacity)
+                .map(codec::encode)
+                .collectList()
+                .flatMapMany(frames -> {
+                    List<ChatFrame> page = buffer.seed(frames, frames.size() < roomCapacity)
+                            ? buffer.read(query, limit)
+                            : null;
+                    evictIfOverBudget();
+                    return page != null ? Flux.fromIterable(page) : fromStore(roomId, query);
+                })
+                .doFinally(signal -> {
+                    if (!buffer.isWarm()) {
+                        discard(buffer);
+                    }
+                });
+    }
+
+    private Flux<ChatFrame> fromStore(String roomId, HistoryQuery query) {
+        return historyService.replay(roomId, query).map(codec::encode);
+    }
+
+    private void discard(RoomBuffer buffer) {
+        buffers.remove(buffer.roomId, buffer);
+        usedBytes.addAndGet(-buffer.close());
+    }
+
+    private void evictIfOverBudget() {
+        // basta con que una sola hebra recorra las salas; las demás siguen publicando
+        if (usedBytes.get() <= maxBytes || !eviction.tryLock()) {
+            return;
+        }
+        try {
+            while (usedBytes.get() > maxBytes) {
+                RoomBuffer victim = null;
+                for (RoomBuffer candidate : buffers.values()) {
+                    if (victim == null || candidate.lastAccess < victim.lastAccess) {
+                        victim = candidate;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                discard(victim);
+                evictions.increment();
+                log.debug("Sala {} descartada de la caché de mensajes recientes", victim.roomId);
+            }
+        } finally {
+            eviction.unlock();
+        }
+    }
+
+    private static long cost(ChatFrame frame) {
+        // el texto vive dos veces: en el payload y en el ChatMessage
+        return 2L * frame.payload().length + FRAME_OVERHEAD;
+    }
+
+    /**
+     * Anillo de una sala ordenado por (createdAt, id). Mientras está caliente contiene todos los
+     * mensajes de la sala a partir del más antiguo guardado; {@code complete} indica además que ese
+     * es el primer mensaje de la sala.
+     */
+    private final class RoomBuffer {
+
+        private final String roomId;
+        // último mensaje publicado antes de crear el buffer: la siembra debe incluirlo
+        private final HistoryCursor floor;
+        private final ReentrantLock lock = new ReentrantLock();
+        // se reserva al llegar el primer mensaje y dobla su tamaño hasta roomCapacity
+        private ChatFrame[] ring = EMPTY;
+        private int head;
+        private int size;
+        private long bytes;
+        private boolean warm;
+        private boolean complete = true;
+        private boolean closed;
+        private volatile long lastAccess = System.nanoTime();
+
+        RoomBuffer(String roomId, HistoryCursor floor) {
+            this.roomId = roomId;
+            this.floor = floor;
+        }
+
+        boolean isWarm() {
+            lock.lock();
+            try {
+                return warm && !closed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void append(ChatFrame frame) {
+            lock.lock();
+            try {
+                if (!closed) {
+                    insert(frame);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(String messageId) {
+            lock.lock();
+            try {
+                // suele ser de los últimos publicados: se busca desde el final
+                for (int pos = size - 1; pos >= 0; pos--) {
+                    ChatFrame frame = get(pos);
+                    if (frame.message().getId().equals(messageId)) {
+                        for (int i = pos; i < size - 1; i++) {
+                            set(i, get(i + 1));
+                        }
+                        set(size - 1, null);
+                        size--;
+                        account(-cost(frame));
+                        return;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Mezcla la primera carga con lo publicado mientras se hacía. Falla si el último mensaje
+         * publicado antes de crear el buffer aún no estaba en Mongo, porque quedaría un hueco.
+         */
+        boolean seed(List<ChatFrame> frames, boolean wholeRoom) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return false;
+                }
+                if (floor != null && !containsFloor(frames)) {
+                    return false;
+                }
+                complete &= wholeRoom;
+                for (int i = frames.size() - 1; i >= 0; i--) {
+                    insert(frames.get(i));
+                }
+                warm = true;
+                lastAccess = System.nanoTime();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Página pedida si el anillo la cubre entera, o null si hay que ir a Mongo. */
+        List<ChatFrame> read(HistoryQuery query, int limit) {
+            lock.lock();
+            try {
+                if (!warm || closed) {
+                    return null;
+                }
+                int from;
+                int to;
+                if (query.since() != null) {
+                    // todo lo posterior al cursor está en el anillo si el cursor no es anterior al más antiguo
+                    from = countUpTo(query.since().createdAt(), query.since().idOrMax(), true);
+                    if (from == 0 && !complete) {
+                        return null;
+                    }
+                    to = Math.min(size, from + limit);
+                } else {
+                    to = query.before() != null
+                            ? countUpTo(query.before().createdAt(), query.before().idOrMin(), false)
+                            : size;
+                    if (to < limit && !complete) {
+                        return null;
+                    }
+                    from = Math.max(0, to - limit);
+                }
+                List<ChatFrame> page = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    page.add(get(i));
+                }
+                lastAccess = System.nanoTime();
+                return page;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long close() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return 0;
+                }
+                closed = true;
+                ring = EMPTY;
+                head = 0;
+                size = 0;
+                return bytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean containsFloor(List<ChatFrame> frames) {
+            // el último publicado suele ser de los más recientes: se busca desde el final
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                int cmp = compare(frames.get(i), floor.createdAt(), floor.id());
+                if (cmp <= 0) {
+                    return cmp == 0;
+                }
+            }
+            return false;
+        }
+
+        private void insert(ChatFrame frame) {
+            // casi siempre va al final; los mensajes de otras instancias pueden llegar algo desordenados
+            int pos = size;
+            while (pos > 0 && compare(get(pos - 1), frame) > 0) {
+                pos--;
+            }
+            if (pos > 0 && compare(get(pos - 1), frame) == 0) {
+                return;
+            }
+            if (size == ring.length && ring.length < roomCapacity) {
+                grow();
+            }
+            if (size == ring.length) {
+                complete = false;
+                if (pos == 0) {
+                    return;
+                }
+                ChatFrame oldest = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                pos--;
+                account(-cost(oldest));
+            }
+            for (int i = size; i > pos; i--) {
+                set(i, get(i - 1));
+            }
+            set(pos, frame);
+            size++;
+            account(cost(frame));
+        }
+
+        private void grow() {
+            ChatFrame[] larger = new ChatFrame[Math.min(roomCapacity, Math.max(INITIAL_SLOTS, ring.length * 2))];
+            for (int i = 0; i < size; i++) {
+                larger[i] = get(i);
+            }
+            account((larger.length - ring.length) * SLOT_BYTES);
+            ring = larger;
+            head = 0;
+        }
+
+        /** Número de mensajes anteriores a la posición dada, o anteriores o iguales si {@code inclusive}. */
+        private int countUpTo(Instant createdAt, String id, boolean inclusive) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = HistoryCursor.compare(get(mid).message(), createdAt, id);
+                if (cmp < 0 || (inclusive && cmp == 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void account(long delta) {
+            bytes += delta;
+            usedBytes.addAndGet(delta);
+        }
+
+        private ChatFrame get(int index) {
+            return ring[(head + index) % ring.length];
+        }
+
+        private void set(int index, ChatFrame frame) {
+            ring[(head + index) % ring.length] = frame;
+        }
+
+        private static int compare(ChatFrame frame, Instant createdAt, String id) {
+            return HistoryCursor.compare(frame.message(), createdAt, id);
+        }
+
+        private static int compare(ChatFrame a, ChatFrame b) {
+            ChatMessage other = b.message();
+            return HistoryCursor.compare(a.message(), other.getCreatedAt(), other.getId());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.cloud.client.serviceregistry.Registration;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Afinidad de salas: cada sala tiene una instancia dueña según un anillo de hash consistente sobre
+ * las instancias de {@code chat.affinity.service-id} en Eureka, para que sus miembros coincidan en
+ * la misma JVM y los sinks y cachés locales sirvan a toda la sala. El handshake de una sala ajena
+ * se cierra indicando su dueña (ver {@link RoomAuthorizingHandshakeService}). Al cambiar las instancias
+ * se cierran con 1012 las sesiones de las salas que dejan de ser de esta, para que reconecten en
+ * su nueva dueña; la difusión de cluster sigue cubriendo lo que quede repartido mientras tanto.
+ */
+@Slf4j
+@Component
+public class RoomAffinity {
+
+    /** Parámetro que marca un handshake ya dirigido a la dueña; se acepta aunque las vistas del anillo difieran. */
+    static final String ROUTED_PARAM = "routed";
+    static final String OWNER_HEADER = "X-Chat-Owner";
+    /**
+     * Cierre de una sesión abierta en una instancia que no es la dueña de la sala; el motivo es la
+     * URL base de la dueña, donde el cliente reconecta con la misma ruta y {@code routed=1}.
+     */
+    public static final CloseStatus MISDIRECTED = new CloseStatus(4021, "misdirected");
+
+    private final ReactiveDiscoveryClient discovery;
+    private final Registration self;
+    private final SessionRegistry sessions;
+    private final ChatProperties.Affinity config;
+    private final Counter moved;
+    private volatile ConsistentHashRing<ServiceInstance> ring;
+    private Disposable refresher;
+
+    public RoomAffinity(ObjectProvider<ReactiveDiscoveryClient> discovery, ObjectProvider<Registration> registration,
+                        SessionRegistry sessions, ChatProperties properties, MeterRegistry meterRegistry) {
+        this.discovery = discovery.getIfAvailable();
+        this.self = registration.getIfAvailable();
+        this.sessions = sessions;
+        this.config = properties.getAffinity();
+        this.ring = new ConsistentHashRing<>(List.of(), RoomAffinity::key, config.getVirtualNodes());
+        this.moved = Counter.builder("chat.affinity.moved")
+                .description("Sesiones cerradas porque su sala pasó a otra instancia")
+                .register(meterRegistry);
+        Gauge.builder("chat.affinity.instances", this, affinity -> affinity.ring.nodes().size())
+                .description("Instancias en el anillo de afinidad")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        if (discovery == null || self == null) {
+            log.warn("Afinidad de salas desactivada: no hay registro en Eureka para identificar esta instancia");
+            return;
+        }
+        refresher = Flux.interval(Duration.ZERO, config.getRefreshInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> refresh()
+                        .onErrorResume(e -> {
+                            log.warn("No se pudo refrescar el anillo de afinidad: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (refresher != null) {
+            refresher.dispose();
+        }
+    }
+
+    /** Dueña de la sala si es otra instancia; vacío si es esta o la afinidad no está activa. */
+    public Optional<ServiceInstance> remoteOwner(String roomId) {
+        ServiceInstance owner = ring.owner(roomId);
+        return owner == null || isSelf(owner) ? Optional.empty() : Optional.of(owner);
+    }
+
+    /** La misma petición de handshake dirigida a la instancia dueña y marcada como ya dirigida. */
+    URI ownerUri(ServiceInstance owner, URI request) {
+        return UriComponentsBuilder.fromUri(request)
+                .scheme(owner.isSecure() ? "wss" : "ws")
+                .host(owner.getHost())
+                .port(owner.getPort())
+                .replaceQueryParam(ROUTED_PARAM, "1")
+                .build(true)
+                .toUri();
+    }
+
+    /** Esquema, host y puerto de la dueña: lo justo para el motivo de un cierre, limitado a 123 bytes. */
+    URI ownerBase(ServiceInstance owner) {
+        return UriComponentsBuilder.newInstance()
+                .scheme(owner.isSecure() ? "wss" : "ws")
+                .host(owner.getHost())
+                .port(owner.getPort())
+                .build(true)
+                .toUri();
+    }
+
+    boolean isHandoff() {
+        return config.isHandoff();
+    }
+
+    Mono<Void> refresh() {
+        return discovery.getInstances(config.getServiceId())
+                .collectList()
+                .flatMap(this::rebuild);
+    }
+
+    private Mono<Void> rebuild(List<ServiceInstance> instances) {
+        // sin respuesta de Eureka se mantiene el anillo anterior antes que mover todas las salas
+        if (instances.isEmpty()) {
+            return Mono.empty();
+        }
+        List<ServiceInstance> sorted = instances.stream().sorted(Comparator.comparing(RoomAffinity::key)).toList();
+        ConsistentHashRing<ServiceInstance> previous = ring;
+        if (sorted.stream().map(RoomAffinity::key).toList()
+                .equals(previous.nodes().stream().map(RoomAffinity::key).toList())) {
+            return Mono.empty();
+        }
+        ConsistentHashRing<ServiceInstance> next = new ConsistentHashRing<>(sorted, RoomAffinity::key, config.getVirtualNodes());
+        ring = next;
+        log.info("Anillo de afinidad con {} instancias", sorted.size());
+        // se mueven las salas que eran de esta instancia (o todas, si aún no había anillo) y ya no lo son
+        return sessions.closeRooms(roomId -> {
+                    ServiceInstance before = previous.owner(roomId);
+                    ServiceInstance now = next.owner(roomId);
+                    return (before == null || isSelf(before)) && now != null && !isSelf(now);
+                }, CloseStatus.SERVICE_RESTARTED)
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        moved.increment(count);
+                        log.info("Cerradas {} sesiones de salas que pasan a otra instancia", count);
+                    }
+                })
+                .then();
+    }
+
+    private boolean isSelf(ServiceInstance instance) {
+        return key(instance).equals(key(self));
+    }
+
+    private static String key(ServiceInstance instance) {
+        return instance.getInstanceId() != null
+                ? instance.getInstanceId()
+                : instance.getHost() + ":" + instance.getPort();
+    }
+}
@@ -0,0 +1,124 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.RequestIdentity;
+import com.msvcchat.service.RoomMembershipService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.Optional;
+
+/**
+ * Handshake de {@code /ws/chat/{roomId}} que solo acepta a miembros de la sala. El usuario es el
+ * autenticado según {@link RequestIdentity}; queda en el atributo de sesión {@link #USER_ID} y su
+ * rol en la sala en {@link #USER_ROLE}, y son los que firman sus mensajes. Mientras la instancia se
+ * vacía contesta 503 para que el cliente reconecte en otra. Con afinidad de salas, el handshake de
+ * una sala de otra instancia lleva la dueña en {@code X-Chat-Owner} y, con
+ * {@code chat.affinity.handoff}, se cierra nada más abrirse con {@link RoomAffinity#MISDIRECTED}.
+ */
+@Slf4j
+public class RoomAuthorizingHandshakeService extends HandshakeWebSocketService {
+
+    public static final String USER_ID = "chat.userId";
+    public static final String USER_ROLE = "chat.userRole";
+
+    private final RequestIdentity identity;
+    private final RoomMembershipService membership;
+    private final SessionRegistry sessions;
+    private final RoomAffinity affinity;
+    private final Counter anonymous;
+    private final Counter forbidden;
+    private final Counter draining;
+    private final Counter handedOff;
+
+    public RoomAuthorizingHandshakeService(RequestIdentity identity, RoomMembershipService membership,
+                                           SessionRegistry sessions, RoomAffinity affinity, MeterRegistry meterRegistry) {
+        this.identity = identity;
+        this.membership = membership;
+        this.sessions = sessions;
+        this.affinity = affinity;
+        this.anonymous = rejected(meterRegistry, "anonymous");
+        this.forbidden = rejected(meterRegistry, "not_member");
+        this.draining = rejected(meterRegistry, "draining");
+        this.handedOff = Counter.builder("chat.affinity.handoffs")
+                .description("Sesiones cerradas al abrirse para que reconecten en la instancia dueña de la sala")
+                .register(meterRegistry);
+        setSessionAttributePredicate(name -> USER_ID.equals(name) || USER_ROLE.equals(name));
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("chat.handshake.rejected")
+                .description("Handshakes WebSocket rechazados")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Mono<Void> handleRequest(ServerWebExchange exchange, WebSocketHandler handler) {
+        if (!sessions.isAccepting()) {
+            draining.increment();
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+            return reject(exchange, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().value();
+        String roomId = path.substring(path.lastIndexOf('/') + 1);
+        WebSocketHandler target = handler;
+        if (request.getQueryParams().getFirst(RoomAffinity.ROUTED_PARAM) == null) {
+            Optional<ServiceInstance> owner = affinity.remoteOwner(roomId);
+            if (owner.isPresent()) {
+                URI location = affinity.ownerUri(owner.get(), request.getURI());
+                exchange.getResponse().getHeaders().set(RoomAffinity.OWNER_HEADER, location.toString());
+                if (affinity.isHandoff()) {
+                    // un 3xx no lo siguen los navegadores en un handshake; el cierre sí lo ven
+                    CloseStatus misdirected = RoomAffinity.MISDIRECTED.withReason(affinity.ownerBase(owner.get()).toString());
+                    target = session -> {
+                        handedOff.increment();
+                        return session.close(misdirected);
+                    };
+                }
+            }
+        }
+        WebSocketHandler accepted = target;
+        return identity.userId(exchange)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(userId -> {
+                    if (userId.isEmpty()) {
+                        anonymous.increment();
+                        return reject(exchange, HttpStatus.UNAUTHORIZED);
+                    }
+                    return authorize(exchange, accepted, roomId, userId.get());
+                });
+    }
+
+    private Mono<Void> authorize(ServerWebExchange exchange, WebSocketHandler handler, String roomId, String userId) {
+        return membership.isMember(roomId, userId)
+                .flatMap(member -> {
+                    if (!member) {
+                        forbidden.increment();
+                        log.debug("Usuario {} rechazado en la sala {}", userId, roomId);
+                        return reject(exchange, HttpStatus.FORBIDDEN);
+                    }
+                    exchange.getAttributes().put(USER_ID, userId);
+                    return membership.roleOf(roomId, userId)
+                            .doOnNext(role -> exchange.getAttributes().put(USER_ROLE, role))
+                            .then(Mono.defer(() -> super.handleRequest(exchange, handler)));
+                });
+    }
+
+    private static Mono<Void> reject(ServerWebExchange exchange, HttpStatus status) {
+        exchange.getResponse().setStatusCode(status);
+        return exchange.getResponse().setComplete();
+    }
+}
@@ -0,0 +1,163 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.config.reactor.SinkEmitters;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import org.bson.types.ObjectId;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Canal en memoria de una sala. Cuenta las sesiones suscritas para que
+ * {@link RoomChannelRegistry} lo libere cuando se va la última.
+ */
+public class RoomChannel {
+
+    private final String roomId;
+    // entrega directa a cada suscriptor: el buffer acotado vive en cada sesión (SessionOutbound),
+    // así una sesión lenta no frena a la sala
+    private final Sinks.Many<ChatFrame> sink = Sinks.many().multicast().directBestEffort();
+    // escritura y presencia: mismo reparto, pero cada sesión los descarta en cuanto no da abasto
+    private final Sinks.Many<EphemeralFrame> ephemeral = Sinks.many().multicast().directBestEffort();
+    private final RoomPresence presence = new RoomPresence();
+    private final ChatCodec codec;
+    private final Map<Sinks.EmitResult, Counter> emitResults;
+    private final RecentMessageCache recentMessages;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final AtomicReference<Disposable> pendingEviction = new AtomicReference<>();
+    // ReentrantLock y no synchronized: no fija los hilos virtuales a su portador
+    private final ReentrantLock order = new ReentrantLock();
+    private Instant lastCreatedAt = Instant.EPOCH;
+    private volatile HistoryCursor lastPublished;
+
+    RoomChannel(String roomId, ChatCodec codec, Map<Sinks.EmitResult, Counter> emitResults,
+                RecentMessageCache recentMessages) {
+        this.roomId = roomId;
+        this.codec = codec;
+        this.emitResults = emitResults;
+        this.recentMessages = recentMessages;
+    }
+
+    public String roomId() {
+        return roomId;
+    }
+
+    public Flux<ChatFrame> asFlux() {
+        return sink.asFlux();
+    }
+
+    /**
+     * Sección FIFO de la sala: asigna id y createdAt crecientes y ejecuta {@code action} (encolar y
+     * publicar) sin soltar el cerrojo, de modo que el orden de ids, de persistencia y de entrega coincide
+     * aunque escriban varias sesiones a la vez. Salas distintas no se bloquean entre sí.
+     */
+    public <T> T sequence(ChatMessage message, Function<ChatMessage, T> action) {
+        order.lock();
+        try {
+            // a milisegundos, como lo guarda Mongo y lo codifica el cursor: el mensaje en vivo y el
+            // leído del historial deben compararse igual. El reloj puede retroceder; el cursor no
+            Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+            if (now.isBefore(lastCreatedAt)) {
+                now = lastCreatedAt;
+            }
+            lastCreatedAt = now;
+            message.setCreatedAt(now);
+            message.setId(new ObjectId(Date.from(now)).toHexString());
+            return action.apply(message);
+        } finally {
+            order.unlock();
+        }
+    }
+
+    /**
+     * Entrega un mensaje que ya secuenció otra instancia. Toma el mismo cerrojo que {@link #sequence},
+     * así no se intercala con una publicación local ni en el sink ni en la caché, y los ids locales
+     * siguientes no quedan por detrás de lo ya entregado.
+     */
+    public Sinks.EmitResult publishRemote(ChatMessage message) {
+        order.lock();
+        try {
+            Instant createdAt = message.getCreatedAt();
+            if (createdAt != null && createdAt.isAfter(lastCreatedAt)) {
+                lastCreatedAt = createdAt;
+            }
+            return publish(message);
+        } finally {
+            order.unlock();
+        }
+    }
+
+    /**
+     * Serializa el mensaje una sola vez y lo entrega a todas las sesiones de la sala.
+     */
+    public Sinks.EmitResult publish(ChatMessage message) {
+        ChatFrame frame = codec.encode(message);
+        // antes que la caché: si una reproducción siembra la sala entre medias, debe esperar a este mensaje
+        lastPublished = HistoryCursor.of(message);
+        Sinks.EmitResult result = SinkEmitters.emitNext(sink, frame);
+        emitResults.get(result).increment();
+        recentMessages.append(roomId, frame);
+        return result;
+    }
+
+    public Flux<EphemeralFrame> ephemeral() {
+        return ephemeral.asFlux();
+    }
+
+    /** Difunde un evento efímero sin persistirlo; si la sala está saturada se pierde. */
+    public void publishEphemeral(EphemeralFrame frame) {
+        ephemeral.tryEmitNext(frame);
+    }
+
+    RoomPresence presence() {
+        return presence;
+    }
+
+    /** Cursor del último mensaje publicado en este canal, o null si aún no hay ninguno. */
+    HistoryCursor lastPublished() {
+        return lastPublished;
+    }
+
+    public int subscribers() {
+        return subscribers.get();
+    }
+
+    boolean isIdle() {
+        return subscribers.get() == 0;
+    }
+
+    void retain() {
+        subscribers.incrementAndGet();
+        Disposable eviction = pendingEviction.getAndSet(null);
+        if (eviction != null) {
+            eviction.dispose();
+        }
+    }
+
+    int release() {
+        return subscribers.decrementAndGet();
+    }
+
+    void scheduleEviction(Disposable eviction) {
+        Disposable previous = pendingEviction.getAndSet(eviction);
+        if (previous != null) {
+            previous.dispose();
+        }
+    }
+
+    void close() {
+        sink.tryEmitComplete();
+        ephemeral.tryEmitComplete();
+    }
+}
@@ -0,0 +1,115 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import com.msvcchat.config.reactor.SinkEmitters;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Salas activas en esta instancia. Cada sesión hace {@link #acquire} al conectar y
+ * {@link #release} al cerrar; cuando una sala se queda sin suscriptores se elimina
+ * tras un periodo de gracia, para que una reconexión rápida reutilice el canal.
+ */
+@Slf4j
+@Component
+public class RoomChannelRegistry {
+
+    private final Map<String, RoomChannel> channels = new ConcurrentHashMap<>();
+    private final ChatCodec codec;
+    private final RecentMessageCache recentMessages;
+    private final Duration evictionGrace;
+    private final Counter evictions;
+    private final Map<Sinks.EmitResult, Counter> emitResults = new EnumMap<>(Sinks.EmitResult.class);
+    private final Sinks.Many<Boolean> roomsChanged = Sinks.many().multicast().directBestEffort();
+
+    public RoomChannelRegistry(ChatProperties properties, ChatCodec codec, RecentMessageCache recentMessages,
+                               MeterRegistry meterRegistry) {
+        this.codec = codec;
+        this.recentMessages = recentMessages;
+        this.evictionGrace = properties.getRooms().getEvictionGrace();
+        Gauge.builder("chat.rooms.active", channels, Map::size)
+                .description("Salas con canal en memoria en esta instancia")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("chat.rooms.evicted")
+                .description("Canales de sala liberados tras quedarse sin suscriptores")
+                .register(meterRegistry);
+        for (Sinks.EmitResult result : Sinks.EmitResult.values()) {
+            emitResults.put(result, Counter.builder("chat.rooms.emit")
+                    .description("Resultado de publicar un mensaje en el canal de una sala")
+                    .tag("result", result.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    public RoomChannel acquire(String roomId) {
+        boolean[] created = {false};
+        // compute serializa acquire y evict sobre la misma clave
+        RoomChannel acquired = channels.compute(roomId, (id, existing) -> {
+            RoomChannel channel = existing;
+            if (channel == null) {
+                channel = new RoomChannel(id, codec, emitResults, recentMessages);
+                created[0] = true;
+            }
+            channel.retain();
+            return channel;
+        });
+        if (created[0]) {
+            SinkEmitters.emitNext(roomsChanged, Boolean.TRUE);
+        }
+        return acquired;
+    }
+
+    public void release(RoomChannel channel) {
+        if (channel.release() == 0) {
+            channel.scheduleEviction(Schedulers.parallel()
+                    .schedule(() -> evict(channel), evictionGrace.toMillis(), TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /** Canal de la sala si hay suscriptores locales; no cuenta como suscripción. */
+    public RoomChannel find(String roomId) {
+        return channels.get(roomId);
+    }
+
+    public Set<String> activeRooms() {
+        return Set.copyOf(channels.keySet());
+    }
+
+    /**
+     * Señal (sin datos) cada vez que se crea o se libera una sala; {@link #activeRooms()} da el estado.
+     */
+    public Flux<Boolean> roomsChanged() {
+        return roomsChanged.asFlux();
+    }
+
+    private void evict(RoomChannel channel) {
+        boolean[] evicted = {false};
+        channels.computeIfPresent(channel.roomId(), (id, current) -> {
+            if (current == channel && channel.isIdle()) {
+                evicted[0] = true;
+                return null;
+            }
+            return current;
+        });
+        if (evicted[0]) {
+            channel.close();
+            recentMessages.invalidate(channel.roomId());
+            evictions.increment();
+            SinkEmitters.emitNext(roomsChanged, Boolean.TRUE);
+            log.debug("Sala {} liberada", channel.roomId());
+        }
+    }
+}
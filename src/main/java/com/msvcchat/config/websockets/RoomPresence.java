@@ -0,0 +1,53 @@
+package com.msvcchat.config.websockets;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presencia y estado de escritura de una sala, solo en memoria. Un usuario está en línea mientras
+ * tenga al menos una sesión abierta; de quien escribe se guarda solo el instante del último aviso
+ * difundido, para agrupar los siguientes.
+ */
+class RoomPresence {
+
+    private final Map<String, Integer> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Long> typingSince = new ConcurrentHashMap<>();
+
+    /** @return true si es la primera sesión del usuario en la sala */
+    boolean join(String userId) {
+        return sessions.merge(userId, 1, Integer::sum) == 1;
+    }
+
+    /** @return true si era la última sesión del usuario en la sala */
+    boolean leave(String userId) {
+        boolean last = sessions.computeIfPresent(userId, (id, count) -> count > 1 ? count - 1 : null) == null;
+        if (last) {
+            typingSince.remove(userId);
+        }
+        return last;
+    }
+
+    Set<String> online() {
+        return Set.copyOf(sessions.keySet());
+    }
+
+    /**
+     * Decide si un aviso de escritura se difunde: "escribiendo" como mucho una vez por
+     * {@code intervalNanos}, y "ha parado" solo si antes se difundió que escribía.
+     */
+    boolean typing(String userId, boolean active, long nowNanos, long intervalNanos) {
+        if (!active) {
+            return typingSince.remove(userId) != null;
+        }
+        boolean[] forward = {false};
+        typingSince.compute(userId, (id, last) -> {
+            if (last == null || nowNanos - last >= intervalNanos) {
+                forward[0] = true;
+                return nowNanos;
+            }
+            return last;
+        });
+        return forward[0];
+    }
+}
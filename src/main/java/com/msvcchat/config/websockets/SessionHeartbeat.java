@@ -0,0 +1,65 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Pings del servidor cada {@code chat.sessions.ping-interval} y cierre de las sesiones que pasan
+ * {@code chat.sessions.idle-timeout} sin recibir nada, ni siquiera el pong. Así una conexión medio
+ * abierta (móvil que perdió cobertura) libera su suscripción a la sala y su buffer en segundos,
+ * no cuando TCP se rinda.
+ */
+@Component
+public class SessionHeartbeat {
+
+    public static final CloseStatus IDLE = new CloseStatus(4408, "idle timeout");
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Duration pingInterval;
+    private final long idleTimeoutNanos;
+    private final Counter pings;
+    private final Counter idleClosed;
+
+    public SessionHeartbeat(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.pingInterval = properties.getSessions().getPingInterval();
+        this.idleTimeoutNanos = properties.getSessions().getIdleTimeout().toNanos();
+        this.pings = Counter.builder("chat.sessions.pings")
+                .description("Pings enviados a los clientes")
+                .register(meterRegistry);
+        this.idleClosed = Counter.builder("chat.sessions.idle.closed")
+                .description("Sesiones cerradas por no responder")
+                .register(meterRegistry);
+    }
+
+    public Flux<WebSocketMessage> pings(WebSocketSession session) {
+        return Flux.interval(pingInterval)
+                .onBackpressureDrop()
+                .map(tick -> {
+                    pings.increment();
+                    return session.pingMessage(factory -> factory.wrap(EMPTY));
+                });
+    }
+
+    /**
+     * Completa tras cerrar la sesión por inactividad; quien lo combine con la sesión debe terminarla
+     * entonces, porque con el otro extremo muerto el cierre no tiene respuesta.
+     */
+    public Mono<Void> watchdog(WebSocketSession session, SessionStats stats) {
+        return Flux.interval(pingInterval)
+                .filter(tick -> stats.idleNanos(System.nanoTime()) > idleTimeoutNanos)
+                .next()
+                .flatMap(tick -> {
+                    idleClosed.increment();
+                    return session.close(IDLE).onErrorResume(e -> Mono.empty());
+                });
+    }
+}
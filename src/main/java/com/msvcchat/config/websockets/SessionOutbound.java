@@ -0,0 +1,92 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.DTOs.GapFrame;
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.config.ChatProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Buffer de salida acotado por sesión. El canal de la sala entrega a cada sesión sin esperar
+ * a las demás; lo que una sesión lenta no alcanza a enviar se acumula aquí hasta
+ * {@code chat.sessions.outbound-buffer} y después se aplica la {@link OverflowPolicy} configurada.
+ */
+@Component
+public class SessionOutbound {
+
+    public static final CloseStatus SLOW_CONSUMER = new CloseStatus(4008, "slow consumer");
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Counter overflows;
+
+    public SessionOutbound(ChatProperties properties, MeterRegistry meterRegistry) {
+        this.capacity = properties.getSessions().getOutboundBuffer();
+        this.policy = properties.getSessions().getOverflowPolicy();
+        this.overflows = Counter.builder("chat.sessions.outbound.overflow")
+                .description("Mensajes descartados por buffers de salida llenos")
+                .tag("policy", policy.name())
+                .register(meterRegistry);
+    }
+
+    public <R> Flux<R> bound(Flux<ChatFrame> source, WebSocketSession session, String roomId,
+                             Function<ChatFrame, R> frame, Function<GapFrame, R> gapFrame) {
+        return bound(source, session, roomId, frame, gapFrame, dropped -> {
+        });
+    }
+
+    /** Igual, avisando de cada mensaje que el buffer descarta. */
+    public <R> Flux<R> bound(Flux<ChatFrame> source, WebSocketSession session, String roomId,
+                             Function<ChatFrame, R> frame, Function<GapFrame, R> gapFrame,
+                             Consumer<ChatFrame> onDrop) {
+        return switch (policy) {
+            case DROP_OLDEST -> source
+                    .onBackpressureBuffer(capacity, dropped -> {
+                        overflows.increment();
+                        onDrop.accept(dropped);
+                    }, BufferOverflowStrategy.DROP_OLDEST)
+                    .map(frame);
+            case DISCONNECT -> source
+                    .onBackpressureBuffer(capacity, dropped -> {
+                        overflows.increment();
+                        onDrop.accept(dropped);
+                    }, BufferOverflowStrategy.ERROR)
+                    .map(frame)
+                    .onErrorResume(Exceptions::isOverflow, e -> session.close(SLOW_CONSUMER).then(Mono.empty()));
+            case COALESCE -> coalesce(source, roomId, frame, gapFrame, onDrop);
+        };
+    }
+
+    private <R> Flux<R> coalesce(Flux<ChatFrame> source, String roomId,
+                                 Function<ChatFrame, R> frame, Function<GapFrame, R> gapFrame,
+                                 Consumer<ChatFrame> onDrop) {
+        AtomicBoolean gap = new AtomicBoolean();
+        HistoryCursor[] lastDelivered = new HistoryCursor[1];
+        return source
+                .onBackpressureBuffer(capacity, dropped -> {
+                    overflows.increment();
+                    onDrop.accept(dropped);
+                    gap.set(true);
+                }, BufferOverflowStrategy.DROP_OLDEST)
+                .flatMapIterable(m -> {
+                    HistoryCursor since = lastDelivered[0];
+                    lastDelivered[0] = HistoryCursor.of(m.message());
+                    // todo lo descartado desde el último envío se resume en un solo aviso
+                    return gap.getAndSet(false)
+                            ? List.of(gapFrame.apply(GapFrame.of(roomId, since)), frame.apply(m))
+                            : List.of(frame.apply(m));
+                });
+    }
+}
@@ -0,0 +1,75 @@
+package com.msvcchat.config.websockets;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Sesiones WebSocket abiertas en esta instancia, con sus contadores, y si se aceptan nuevas. Al
+ * parar, {@link ConnectionDrainer} deja de aceptar y cierra las abiertas.
+ */
+@Component
+public class SessionRegistry {
+
+    private final Map<String, SessionStats> sessions = new ConcurrentHashMap<>();
+    private volatile boolean accepting = true;
+
+    /**
+     * Registra la sesión. Se añade antes de que el llamante mire {@link #isAccepting()} para que
+     * {@link #closeAll} no se salte una que entra a la vez.
+     */
+    public SessionStats register(WebSocketSession session, String roomId, String userId) {
+        SessionStats stats = new SessionStats(session, roomId, userId);
+        sessions.put(session.getId(), stats);
+        return stats;
+    }
+
+    public void unregister(WebSocketSession session) {
+        sessions.remove(session.getId());
+    }
+
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    Collection<SessionStats> all() {
+        return sessions.values();
+    }
+
+    SessionStats get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    void stopAccepting() {
+        accepting = false;
+    }
+
+    /** Cierra las sesiones de las salas indicadas y devuelve cuántas eran. */
+    Mono<Long> closeRooms(Predicate<String> rooms, CloseStatus status) {
+        return Flux.fromIterable(sessions.values())
+                .filter(stats -> rooms.test(stats.roomId()))
+                .flatMap(stats -> close(stats, status).thenReturn(stats))
+                .count();
+    }
+
+    Mono<Void> closeAll(CloseStatus status) {
+        return Flux.fromIterable(sessions.values())
+                .flatMap(stats -> close(stats, status))
+                .then();
+    }
+
+    private static Mono<Void> close(SessionStats stats, CloseStatus status) {
+        return stats.session().close(status).onErrorResume(e -> Mono.empty());
+    }
+}
@@ -0,0 +1,81 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.DTOs.ChatSessionDto;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de una sesión WebSocket: actividad de entrada (también pongs) para detectar
+ * conexiones muertas, tráfico, y bytes retenidos en su buffer de salida.
+ */
+public final class SessionStats {
+
+    private final WebSocketSession session;
+    private final String roomId;
+    private final String userId;
+    private final Instant openedAt = Instant.now();
+    private final long openedNanos = System.nanoTime();
+    private volatile long lastActivityNanos = openedNanos;
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    SessionStats(WebSocketSession session, String roomId, String userId) {
+        this.session = session;
+        this.roomId = roomId;
+        this.userId = userId;
+    }
+
+    /** Cualquier frame recibido, incluidos pongs: la conexión sigue viva. */
+    void received(WebSocketMessage message) {
+        lastActivityNanos = System.nanoTime();
+        bytesIn.add(message.getPayload().readableByteCount());
+    }
+
+    void messageIn() {
+        messagesIn.increment();
+    }
+
+    void sent(WebSocketMessage message) {
+        messagesOut.increment();
+        bytesOut.add(message.getPayload().readableByteCount());
+    }
+
+    /** Mensaje de la sala que entra al buffer de salida. */
+    void buffered(ChatFrame frame) {
+        bufferedBytes.addAndGet(frame.payload().length);
+    }
+
+    /** Mensaje de la sala que sale del buffer, enviado o descartado. */
+    void released(ChatFrame frame) {
+        bufferedBytes.addAndGet(-frame.payload().length);
+    }
+
+    long idleNanos(long now) {
+        return now - lastActivityNanos;
+    }
+
+    WebSocketSession session() {
+        return session;
+    }
+
+    String roomId() {
+        return roomId;
+    }
+
+    ChatSessionDto view() {
+        long now = System.nanoTime();
+        return new ChatSessionDto(session.getId(), roomId, userId, openedAt,
+                TimeUnit.NANOSECONDS.toSeconds(now - openedNanos),
+                TimeUnit.NANOSECONDS.toMillis(idleNanos(now)),
+                messagesIn.sum(), messagesOut.sum(), bytesIn.sum(), bytesOut.sum(),
+                Math.max(0, bufferedBytes.get()));
+    }
+}
@@ -0,0 +1,44 @@
+package com.msvcchat.config.websockets;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket sin cerrojos (GCRA): todo el estado es un AtomicLong con el instante teórico de la
+ * siguiente llegada, así que comprobar un mensaje no reserva memoria y varios hilos pueden
+ * consumir del mismo bucket a la vez.
+ */
+public final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param ratePerSecond tokens que se reponen por segundo
+     * @param burst         tokens disponibles de golpe con el bucket lleno
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        this.toleranceNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    /**
+     * Consume un token si lo hay.
+     *
+     * @param now {@link System#nanoTime()}
+     * @return 0 si se consumió; si no, nanosegundos hasta que haya uno
+     */
+    public long tryAcquire(long now) {
+        while (true) {
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long wait = next - now - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.msvcchat.config.websockets;
 
+import com.msvcchat.config.RequestIdentity;
+import com.msvcchat.service.RoomMembershipService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
@@ -21,7 +24,16 @@ public class WebSocketConfig {
     }
 
     @Bean
-    public WebSocketHandlerAdapter handlerAdapter() {
-        return new WebSocketHandlerAdapter();
+    public RoomAuthorizingHandshakeService handshakeWebSocketService(RequestIdentity identity,
+                                                                     RoomMembershipService membership,
+                                                                     SessionRegistry sessions,
+                                                                     RoomAffinity affinity,
+                                                                     MeterRegistry meterRegistry) {
+        return new RoomAuthorizingHandshakeService(identity, membership, sessions, affinity, meterRegistry);
+    }
+
+    @Bean
+    public WebSocketHandlerAdapter handlerAdapter(RoomAuthorizingHandshakeService handshakeWebSocketService) {
+        return new WebSocketHandlerAdapter(handshakeWebSocketService);
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.msvcchat.controller;
+
+import com.msvcchat.DTOs.ChatMessageDto;
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.DTOs.HistoryPageDto;
+import com.msvcchat.DTOs.HistoryQuery;
+import com.msvcchat.config.RequestIdentity;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.mappers.ChatMessageMapper;
+import com.msvcchat.service.ChatHistoryService;
+import com.msvcchat.service.RoomMembershipService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Historial de una sala sin abrir el WebSocket: páginas keyset en JSON y exportación completa en
+ * streaming (NDJSON o SSE). Solo para miembros de la sala, como el handshake.
+ */
+@RestController
+@RequestMapping("/api/rooms/{roomId}/messages")
+@RequiredArgsConstructor
+public class ChatHistoryController {
+
+    private final ChatHistoryService historyService;
+    private final RoomMembershipService membership;
+    private final ChatMessageMapper mapper;
+    private final RequestIdentity identity;
+
+    @GetMapping
+    public Mono<HistoryPageDto> page(@PathVariable String roomId,
+                                     ServerWebExchange exchange,
+                                     @RequestParam(required = false) String before,
+                                     @RequestParam(required = false) String since,
+                                     @RequestParam(required = false) Integer limit) {
+        if (before != null && since != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "before y since son excluyentes");
+        }
+        HistoryQuery query = new HistoryQuery(cursor(before), cursor(since), limit);
+        int pageSize = historyService.limitFor(query);
+        return authorize(roomId, exchange)
+                .thenMany(historyService.replay(roomId, query))
+                .collectList()
+                .map(messages -> page(messages, query, pageSize));
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ChatMessageDto> export(@PathVariable String roomId,
+                                       ServerWebExchange exchange,
+                                       @RequestParam(required = false) String since) {
+        HistoryCursor from = cursor(since);
+        return authorize(roomId, exchange)
+                .thenMany(historyService.export(roomId, from))
+                .map(mapper::toDto);
+    }
+
+    /**
+     * Igual que la exportación NDJSON; cada evento lleva como id su cursor, así que un cliente SSE
+     * que reconecta con {@code Last-Event-ID} sigue donde lo dejó.
+     */
+    @GetMapping(value = "/export", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatMessageDto>> exportEvents(@PathVariable String roomId,
+                                                              ServerWebExchange exchange,
+                                                              @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                                              @RequestParam(required = false) String since) {
+        HistoryCursor from = cursor(lastEventId != null ? lastEventId : since);
+        return authorize(roomId, exchange)
+                .thenMany(historyService.export(roomId, from))
+                .map(message -> ServerSentEvent.builder(mapper.toDto(message))
+                        .id(HistoryCursor.of(message).encode())
+                        .event("message")
+                        .build());
+    }
+
+    private Mono<Void> authorize(String roomId, ServerWebExchange exchange) {
+        return identity.userId(exchange)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Usuario no autenticado")))
+                .flatMap(userId -> membership.isMember(roomId, userId))
+                .flatMap(member -> member
+                        ? Mono.<Void>empty()
+                        : Mono.error(new ResponseStatusException(HttpStatus.FORBIDDEN, "No es miembro de la sala")));
+    }
+
+    private HistoryPageDto page(List<ChatMessage> messages, HistoryQuery query, int pageSize) {
+        // con la página vacía se devuelven los mismos cursores, para poder seguir consultando
+        HistoryCursor before = messages.isEmpty() ? query.before() : HistoryCursor.of(messages.get(0));
+        HistoryCursor since = messages.isEmpty() ? query.since() : HistoryCursor.of(messages.get(messages.size() - 1));
+        return new HistoryPageDto(mapper.toDtos(messages),
+                before != null ? before.encode() : null,
+                since != null ? since.encode() : null,
+                messages.size() == pageSize);
+    }
+
+    private static HistoryCursor cursor(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return HistoryCursor.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.msvcchat.controller;
+
+import com.msvcchat.DTOs.RoomUnreadDto;
+import com.msvcchat.config.RequestIdentity;
+import com.msvcchat.service.ReadReceiptService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Salas del usuario con sus contadores de no leídos, resueltas en una sola consulta.
+ */
+@RestController
+@RequiredArgsConstructor
+public class RoomListController {
+
+    private final ReadReceiptService receipts;
+    private final RequestIdentity identity;
+
+    @GetMapping("/api/me/rooms")
+    public Flux<RoomUnreadDto> rooms(ServerWebExchange exchange) {
+        return identity.userId(exchange)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Usuario no autenticado")))
+                .flatMapMany(receipts::unreadRooms);
+    }
+}
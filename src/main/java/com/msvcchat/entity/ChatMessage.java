@@ -1,14 +1,21 @@
 package com.msvcchat.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
 @Document(collection = "messages")
+// índice para paginación keyset: igualdad en roomId y rango sobre (createdAt, _id)
+@CompoundIndex(name = "room_created_idx", def = "{'roomId': 1, 'createdAt': 1, '_id': 1}")
+// reintentos del cliente: un clientMsgId por sala; los mensajes sin él no entran en el índice
+@CompoundIndex(name = "room_client_msg_idx", def = "{'roomId': 1, 'clientMsgId': 1}", unique = true,
+        partialFilter = "{'clientMsgId': {'$exists': true}}")
 @Data
 @NoArgsConstructor
 //@Builder
@@ -19,5 +26,8 @@ public class ChatMessage {
     private String fromId;       // id del emisor (user o trainer)
     private String fromRole;     // "USER" o "TRAINER"
     private String text;
+    private String clientMsgId;  // id que asigna el cliente para reintentar sin duplicar
     private Instant createdAt = Instant.now();
+    @JsonIgnore
+    private String originNode;   // instancia que lo difundió en local; el change stream no se lo reenvía
 }
@@ -0,0 +1,36 @@
+package com.msvcchat.entity;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Tramo archivado del historial de una sala: mensajes consecutivos de una misma ventana de tiempo
+ * comprimidos en un solo documento. Los tramos de una sala no se solapan; el primero y el último
+ * mensaje delimitan su posición keyset.
+ */
+@Document(collection = "message_archive")
+@CompoundIndexes({
+        @CompoundIndex(name = "room_first_idx", def = "{'roomId': 1, 'firstAt': 1, 'firstId': 1}"),
+        @CompoundIndex(name = "room_last_idx", def = "{'roomId': 1, 'lastAt': 1, 'lastId': 1}")
+})
+@Data
+@NoArgsConstructor
+public class MessageBucket {
+    @Id
+    private String id;           // "{roomId}:{firstId}": el mismo tramo archivado dos veces choca
+    private String roomId;
+    private Instant firstAt;
+    private String firstId;
+    private Instant lastAt;
+    private String lastId;
+    private int count;
+    private int rawSize;         // bytes BSON antes de comprimir
+    private byte[] payload;      // array de mensajes en BSON, gzip
+    private Instant archivedAt;
+}
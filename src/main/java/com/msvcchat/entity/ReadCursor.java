@@ -0,0 +1,34 @@
+package com.msvcchat.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.time.Instant;
+
+/**
+ * Último mensaje leído por un usuario en una sala. Un documento por (sala, usuario): los no leídos
+ * se cuentan con el índice de mensajes a partir de este cursor, no con contadores por mensaje.
+ */
+@Document(collection = "read_cursors")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadCursor {
+    @Id
+    private String id;           // "{roomId}:{userId}"
+    private String roomId;
+    private String userId;
+    private Instant lastReadAt;  // createdAt del último mensaje leído
+    @Field(targetType = FieldType.OBJECT_ID)
+    private String lastReadId;   // id del último mensaje leído
+    private Instant updatedAt;
+
+    public static String idOf(String roomId, String userId) {
+        return roomId + ":" + userId;
+    }
+}
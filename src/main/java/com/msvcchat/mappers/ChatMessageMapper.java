@@ -0,0 +1,16 @@
+package com.msvcchat.mappers;
+
+import com.msvcchat.DTOs.ChatMessageDto;
+import com.msvcchat.config.ReactiveMapperConfig;
+import com.msvcchat.entity.ChatMessage;
+import org.mapstruct.Mapper;
+
+import java.util.List;
+
+@Mapper(config = ReactiveMapperConfig.class)
+public interface ChatMessageMapper {
+
+    ChatMessageDto toDto(ChatMessage message);
+
+    List<ChatMessageDto> toDtos(List<ChatMessage> messages);
+}
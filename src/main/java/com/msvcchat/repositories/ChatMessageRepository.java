@@ -1,9 +1,50 @@
 package com.msvcchat.repositories;
 
 import com.msvcchat.entity.ChatMessage;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.Meta;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
 
 public interface ChatMessageRepository extends ReactiveMongoRepository<ChatMessage, String> {
-    Flux<ChatMessage> findByRoomIdOrderByCreatedAtAsc(String roomId);
+
+    Mono<ChatMessage> findByIdAndRoomId(String id, String roomId);
+
+    /**
+     * Últimos mensajes de la sala, del más reciente al más antiguo.
+     */
+    Flux<ChatMessage> findByRoomIdOrderByCreatedAtDescIdDesc(String roomId, Limit limit);
+
+    /**
+     * Página keyset estrictamente anterior al cursor (createdAt, id), del más reciente al más antiguo.
+     */
+    @Query(value = "{ 'roomId': ?0, '$or': [ { 'createdAt': { '$lt': ?1 } }, { 'createdAt': ?1, '_id': { '$lt': ?2 } } ] }",
+            sort = "{ 'createdAt': -1, '_id': -1 }")
+    Flux<ChatMessage> findPageBefore(String roomId, Instant createdAt, String id, Limit limit);
+
+    /**
+     * Página keyset estrictamente posterior al cursor (createdAt, id), en orden cronológico.
+     */
+    @Query(value = "{ 'roomId': ?0, '$or': [ { 'createdAt': { '$gt': ?1 } }, { 'createdAt': ?1, '_id': { '$gt': ?2 } } ] }",
+            sort = "{ 'createdAt': 1, '_id': 1 }")
+    Flux<ChatMessage> findPageAfter(String roomId, Instant createdAt, String id, Limit limit);
+
+    /**
+     * Toda la sala en orden cronológico, leída del cursor de Mongo por lotes para exportarla sin
+     * cargarla en memoria.
+     */
+    @Meta(cursorBatchSize = 500)
+    Flux<ChatMessage> findByRoomIdOrderByCreatedAtAscIdAsc(String roomId);
+
+    /**
+     * Como {@link #findByRoomIdOrderByCreatedAtAscIdAsc} pero a partir del cursor (createdAt, id), sin límite.
+     */
+    @Meta(cursorBatchSize = 500)
+    @Query(value = "{ 'roomId': ?0, '$or': [ { 'createdAt': { '$gt': ?1 } }, { 'createdAt': ?1, '_id': { '$gt': ?2 } } ] }",
+            sort = "{ 'createdAt': 1, '_id': 1 }")
+    Flux<ChatMessage> streamAfter(String roomId, Instant createdAt, String id);
 }
@@ -0,0 +1,34 @@
+package com.msvcchat.repositories;
+
+import com.msvcchat.entity.MessageBucket;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+
+public interface MessageBucketRepository extends ReactiveMongoRepository<MessageBucket, String> {
+
+    /**
+     * Tramos más recientes de la sala sin su contenido; el primero marca hasta dónde llega el archivo.
+     */
+    @Query(value = "{ 'roomId': ?0 }", fields = "{ 'payload': 0 }", sort = "{ 'lastAt': -1, 'lastId': -1 }")
+    Flux<MessageBucket> findNewest(String roomId, Limit limit);
+
+    /**
+     * Tramos que acaban después del cursor (createdAt, id), en orden cronológico.
+     */
+    @Query(value = "{ 'roomId': ?0, '$or': [ { 'lastAt': { '$gt': ?1 } }, { 'lastAt': ?1, 'lastId': { '$gt': ?2 } } ] }",
+            sort = "{ 'lastAt': 1, 'lastId': 1 }")
+    Flux<MessageBucket> findEndingAfter(String roomId, Instant createdAt, String id);
+
+    /**
+     * Tramos que empiezan antes del cursor (createdAt, id), del más reciente al más antiguo.
+     */
+    @Query(value = "{ 'roomId': ?0, '$or': [ { 'firstAt': { '$lt': ?1 } }, { 'firstAt': ?1, 'firstId': { '$lt': ?2 } } ] }",
+            sort = "{ 'firstAt': -1, 'firstId': -1 }")
+    Flux<MessageBucket> findStartingBefore(String roomId, Instant createdAt, String id);
+
+    Flux<MessageBucket> findByRoomIdOrderByFirstAtDescFirstIdDesc(String roomId);
+}
@@ -0,0 +1,7 @@
+package com.msvcchat.repositories;
+
+import com.msvcchat.entity.Room;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+public interface RoomRepository extends ReactiveMongoRepository<Room, String> {
+}
@@ -0,0 +1,149 @@
+package com.msvcchat.service;
+
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.DTOs.HistoryQuery;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.repositories.ChatMessageRepository;
+import lombok.RequiredArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.function.Function;
+
+@Service
+@RequiredArgsConstructor
+public class ChatHistoryService {
+
+    private final ChatMessageRepository repo;
+    private final ChatProperties properties;
+    private final MessageArchive archive;
+
+    /**
+     * Historial acotado de la sala en orden cronológico: lo posterior a {@code since},
+     * lo anterior a {@code before}, o los últimos N mensajes si no hay cursor. Con el archivo
+     * activo, lo anterior a la marca de la sala sale de los tramos archivados.
+     */
+    public Flux<ChatMessage> replay(String roomId, HistoryQuery query) {
+        int limit = limitFor(query);
+        if (query.since() != null) {
+            HistoryCursor since = query.since();
+            return tiered(roomId,
+                    repo.findPageAfter(roomId, since.createdAt(), since.idOrMax(), Limit.of(limit)),
+                    mark -> {
+                        HistoryCursor from = later(since, mark);
+                        return Flux.concat(archive.after(roomId, since),
+                                        repo.findPageAfter(roomId, from.createdAt(), from.idOrMax(), Limit.of(limit)))
+                                .take(limit);
+                    });
+        }
+        return chronological(newestFirst(roomId, query.before(), limit));
+    }
+
+    /**
+     * Consulta de reconexión: con {@code lastSeen} (id de mensaje o cursor) y sin otro cursor, solo
+     * lo posterior al último mensaje que tiene el cliente. Un id que no es de la sala se ignora.
+     */
+    public Mono<HistoryQuery> resume(String roomId, HistoryQuery query, String lastSeen) {
+        if (lastSeen == null || lastSeen.isBlank() || query.since() != null || query.before() != null) {
+            return Mono.just(query);
+        }
+        if (ObjectId.isValid(lastSeen)) {
+            return find(roomId, lastSeen)
+                    .map(seen -> new HistoryQuery(null, HistoryCursor.of(seen), query.limit()))
+                    .defaultIfEmpty(query);
+        }
+        try {
+            return Mono.just(new HistoryQuery(null, HistoryCursor.parse(lastSeen), query.limit()));
+        } catch (IllegalArgumentException e) {
+            return Mono.just(query);
+        }
+    }
+
+    /** Mensaje guardado de la sala, o vacío si el id no es válido o no es de esa sala. */
+    public Mono<ChatMessage> find(String roomId, String messageId) {
+        if (messageId == null || !ObjectId.isValid(messageId)) {
+            return Mono.empty();
+        }
+        return repo.findByIdAndRoomId(messageId, roomId);
+    }
+
+    /**
+     * Los últimos {@code count} mensajes de la sala en orden cronológico, sin el tope de
+     * {@code maxLimit}; lo usa la caché de mensajes recientes para sembrar una sala.
+     */
+    public Flux<ChatMessage> latest(String roomId, int count) {
+        return chronological(newestFirst(roomId, null, count));
+    }
+
+    /**
+     * La sala entera en orden cronológico, o lo posterior a {@code since}, directamente del cursor
+     * de Mongo: la demanda del cliente regula la lectura y la memoria no crece con la sala.
+     */
+    public Flux<ChatMessage> export(String roomId, HistoryCursor since) {
+        return tiered(roomId,
+                since == null
+                        ? repo.findByRoomIdOrderByCreatedAtAscIdAsc(roomId)
+                        : repo.streamAfter(roomId, since.createdAt(), since.idOrMax()),
+                mark -> {
+                    HistoryCursor from = later(since, mark);
+                    return Flux.concat(archive.after(roomId, since),
+                            repo.streamAfter(roomId, from.createdAt(), from.idOrMax()));
+                });
+    }
+
+    public int limitFor(HistoryQuery query) {
+        ChatProperties.History history = properties.getHistory();
+        int requested = query.limit() != null ? query.limit() : history.getDefaultLimit();
+        return Math.max(1, Math.min(requested, history.getMaxLimit()));
+    }
+
+    /** Página anterior a {@code before} (o la última), del más reciente al más antiguo. */
+    private Flux<ChatMessage> newestFirst(String roomId, HistoryCursor before, int limit) {
+        Flux<ChatMessage> hot = before != null
+                ? repo.findPageBefore(roomId, before.createdAt(), before.idOrMin(), Limit.of(limit))
+                : repo.findByRoomIdOrderByCreatedAtDescIdDesc(roomId, Limit.of(limit));
+        // lo que siga en "messages" por debajo de la marca ya está archivado y pendiente de purgar
+        return tiered(roomId, hot, mark -> Flux.concat(
+                        hot.takeWhile(message -> HistoryCursor.compare(message, mark.createdAt(), mark.id()) > 0),
+                        archive.before(roomId, before))
+                .take(limit));
+    }
+
+    /**
+     * Lectura sobre "messages" si la sala no tiene nada archivado; si lo tiene, la que combina los
+     * dos niveles a partir de la marca. Sin archivo no cuesta ninguna consulta adicional.
+     */
+    private Flux<ChatMessage> tiered(String roomId, Flux<ChatMessage> hotOnly,
+                                     Function<HistoryCursor, Flux<ChatMessage>> withArchive) {
+        if (!archive.isEnabled()) {
+            return hotOnly;
+        }
+        return archive.watermark(roomId)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMapMany(mark -> mark.map(withArchive).orElse(hotOnly));
+    }
+
+    /** El más reciente de los dos cursores; {@code since} puede ser null. */
+    private static HistoryCursor later(HistoryCursor since, HistoryCursor mark) {
+        if (since == null) {
+            return mark;
+        }
+        int byTime = since.createdAt().compareTo(mark.createdAt());
+        return byTime > 0 || byTime == 0 && since.idOrMax().compareTo(mark.id()) > 0 ? since : mark;
+    }
+
+    private static Flux<ChatMessage> chronological(Flux<ChatMessage> newestFirst) {
+        return newestFirst.collectList()
+                .flatMapIterable(page -> {
+                    Collections.reverse(page);
+                    return page;
+                });
+    }
+}
@@ -0,0 +1,280 @@
+package com.msvcchat.service;
+
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.entity.MessageBucket;
+import com.msvcchat.repositories.MessageBucketRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Nivel frío del historial. Con {@code chat.archive.enabled}, un compactor periódico agrupa los
+ * mensajes de más de {@code min-age} en tramos por sala y ventana de tiempo ({@link MessageBucket}),
+ * comprimidos, y los borra de "messages"; {@link ChatHistoryService} lee de aquí lo anterior a la
+ * marca de cada sala (el último mensaje archivado), así que el archivo es transparente para los
+ * clientes. Primero se escribe el tramo y después se borra: tras un fallo, lo que quedó en
+ * "messages" por debajo de la marca se purga en la siguiente pasada. Cada sala se compacta bajo
+ * un lease en "archive_leases" que caduca a los {@code lease-timeout}, así que dos instancias no
+ * parten nunca la misma sala en tramos distintos.
+ */
+@Slf4j
+@Service
+public class MessageArchive {
+
+    private static final HistoryCursor START = new HistoryCursor(Instant.EPOCH, null);
+    private static final int BUCKET_PREFETCH = 2;
+    private static final String LEASE_COLLECTION = "archive_leases";
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final MessageBucketRepository buckets;
+    private final ChatProperties.Archive config;
+    private final Counter archived;
+    private final Counter bucketReads;
+    private final DistributionSummary bucketSize;
+    private final Timer compaction;
+    /** Dueño de los leases de esta instancia; cambia en cada arranque y el anterior caduca solo. */
+    private final String leaseOwner = UUID.randomUUID().toString();
+    private Disposable compactor;
+
+    public MessageArchive(ReactiveMongoTemplate mongoTemplate, MessageBucketRepository buckets,
+                          ChatProperties properties, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.buckets = buckets;
+        this.config = properties.getArchive();
+        this.archived = Counter.builder("chat.archive.messages")
+                .description("Mensajes movidos al archivo")
+                .register(meterRegistry);
+        this.bucketReads = Counter.builder("chat.archive.bucket.reads")
+                .description("Tramos archivados descomprimidos para leer historial")
+                .register(meterRegistry);
+        this.bucketSize = DistributionSummary.builder("chat.archive.bucket.size")
+                .description("Tamaño comprimido de cada tramo archivado")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.compaction = Timer.builder("chat.archive.compaction")
+                .description("Duración de cada pasada del compactor")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        compactor = Flux.interval(config.getCompactInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> compact()
+                        .onErrorResume(e -> {
+                            log.warn("Fallo al archivar mensajes: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (compactor != null) {
+            compactor.dispose();
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /** Último mensaje archivado de la sala; vacío si no tiene nada archivado. */
+    public Mono<HistoryCursor> watermark(String roomId) {
+        return buckets.findNewest(roomId, Limit.of(1))
+                .next()
+                .map(bucket -> new HistoryCursor(bucket.getLastAt(), bucket.getLastId()));
+    }
+
+    /** Mensajes archivados posteriores a {@code since} (o todos), en orden cronológico. */
+    public Flux<ChatMessage> after(String roomId, HistoryCursor since) {
+        HistoryCursor from = since != null ? since : START;
+        return buckets.findEndingAfter(roomId, from.createdAt(), from.idOrMax())
+                .concatMapIterable(this::messages, BUCKET_PREFETCH)
+                .filter(message -> HistoryCursor.compare(message, from.createdAt(), from.idOrMax()) > 0);
+    }
+
+    /** Mensajes archivados anteriores a {@code before} (o todos), del más reciente al más antiguo. */
+    public Flux<ChatMessage> before(String roomId, HistoryCursor before) {
+        Flux<MessageBucket> newestFirst = before != null
+                ? buckets.findStartingBefore(roomId, before.createdAt(), before.idOrMin())
+                : buckets.findByRoomIdOrderByFirstAtDescFirstIdDesc(roomId);
+        return newestFirst
+                .concatMapIterable(bucket -> {
+                    List<ChatMessage> messages = messages(bucket);
+                    Collections.reverse(messages);
+                    return messages;
+                }, BUCKET_PREFETCH)
+                .filter(message -> before == null
+                        || HistoryCursor.compare(message, before.createdAt(), before.idOrMin()) < 0);
+    }
+
+    /** Una pasada del compactor por todas las salas con mensajes archivables. */
+    Mono<Long> compact() {
+        Date cutoff = Date.from(Instant.now().minus(config.getMinAge()));
+        return mongoTemplate.findDistinct(Query.query(Criteria.where("createdAt").lt(cutoff)),
+                        "roomId", messagesCollection(), String.class)
+                .concatMap(roomId -> compactRoom(roomId, cutoff))
+                .reduce(0L, Long::sum)
+                .transform(pass -> Mono.defer(() -> {
+                    Timer.Sample sample = Timer.start();
+                    return pass.doFinally(signal -> sample.stop(compaction));
+                }))
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        log.info("Archivados {} mensajes anteriores a {}", count, cutoff.toInstant());
+                    }
+                });
+    }
+
+    /** Compacta la sala si consigue su lease; si lo tiene otra instancia, la salta en esta pasada. */
+    private Mono<Long> compactRoom(String roomId, Date cutoff) {
+        return lease(roomId).flatMap(held -> {
+            if (!held) {
+                log.debug("Sala {} compactándose en otra instancia", roomId);
+                return Mono.just(0L);
+            }
+            // si falla, el lease no se suelta y caduca solo
+            return compactLeased(roomId, cutoff)
+                    .flatMap(count -> release(roomId).thenReturn(count))
+                    .onErrorResume(LeaseLostException.class, e -> {
+                        log.warn("Lease de archivo perdido en la sala {}; la termina otra instancia", roomId);
+                        return Mono.just(0L);
+                    });
+        });
+    }
+
+    private Mono<Long> compactLeased(String roomId, Date cutoff) {
+        long windowMillis = config.getBucketWindow().toMillis();
+        Query archivable = Query.query(Criteria.where("roomId").is(roomId).and("createdAt").lt(cutoff))
+                .with(Sort.by("createdAt", "_id"))
+                .cursorBatchSize(500);
+        return watermark(roomId)
+                .flatMap(mark -> purgeArchived(roomId, mark))
+                .then(mongoTemplate.find(archivable, Document.class, messagesCollection())
+                        .windowUntilChanged(document -> document.getDate("createdAt").getTime() / windowMillis)
+                        .concatMap(window -> window.buffer(config.getMaxBucketMessages()))
+                        // el lease se renueva antes de cada tramo; perderlo corta la sala sin escribir más
+                        .concatMap(documents -> lease(roomId).flatMap(held -> held
+                                ? archive(roomId, documents)
+                                : Mono.error(new LeaseLostException())))
+                        .reduce(0L, Long::sum));
+    }
+
+    /**
+     * Toma o renueva el lease de la sala: el upsert solo encaja si está libre, caducado o ya es
+     * nuestro; si lo tiene otra instancia, choca con su _id y devuelve false.
+     */
+    private Mono<Boolean> lease(String roomId) {
+        Date now = new Date();
+        Query free = Query.query(Criteria.where("_id").is(roomId).orOperator(
+                Criteria.where("expiresAt").lt(now),
+                Criteria.where("owner").is(leaseOwner)));
+        Update take = new Update()
+                .set("owner", leaseOwner)
+                .set("expiresAt", Date.from(now.toInstant().plus(config.getLeaseTimeout())));
+        return mongoTemplate.findAndModify(free, take, FindAndModifyOptions.options().upsert(true).returnNew(true),
+                        Document.class, LEASE_COLLECTION)
+                .hasElement()
+                .onErrorReturn(DuplicateKeyException.class, false);
+    }
+
+    private Mono<Void> release(String roomId) {
+        return mongoTemplate.remove(Query.query(Criteria.where("_id").is(roomId).and("owner").is(leaseOwner)),
+                        LEASE_COLLECTION)
+                .then();
+    }
+
+    /** Escribe el tramo y borra sus mensajes de "messages". Un tramo ya escrito se da por bueno. */
+    private Mono<Long> archive(String roomId, List<Document> documents) {
+        Document first = documents.get(0);
+        Document last = documents.get(documents.size() - 1);
+        byte[] bson = MessageBucketCodec.encode(documents);
+        MessageBucket bucket = new MessageBucket();
+        bucket.setId(roomId + ":" + idOf(first));
+        bucket.setRoomId(roomId);
+        bucket.setFirstAt(first.getDate("createdAt").toInstant());
+        bucket.setFirstId(idOf(first));
+        bucket.setLastAt(last.getDate("createdAt").toInstant());
+        bucket.setLastId(idOf(last));
+        bucket.setCount(documents.size());
+        bucket.setRawSize(bson.length);
+        bucket.setPayload(MessageBucketCodec.compress(bson));
+        bucket.setArchivedAt(Instant.now());
+        List<Object> ids = documents.stream().map(document -> document.get("_id")).toList();
+        return mongoTemplate.insert(bucket)
+                .doOnNext(saved -> bucketSize.record(saved.getPayload().length))
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.empty())
+                .then(mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), messagesCollection()))
+                .map(deleted -> {
+                    archived.increment(deleted.getDeletedCount());
+                    return deleted.getDeletedCount();
+                });
+    }
+
+    /** Borra de "messages" lo que ya está archivado (hasta la marca, incluida). */
+    private Mono<Long> purgeArchived(String roomId, HistoryCursor mark) {
+        Object markId = ObjectId.isValid(mark.id()) ? new ObjectId(mark.id()) : mark.id();
+        Date markAt = Date.from(mark.createdAt());
+        Query archivedAlready = Query.query(Criteria.where("roomId").is(roomId).orOperator(
+                Criteria.where("createdAt").lt(markAt),
+                Criteria.where("createdAt").is(markAt).and("_id").lte(markId)));
+        return mongoTemplate.remove(archivedAlready, messagesCollection())
+                .map(deleted -> deleted.getDeletedCount());
+    }
+
+    private List<ChatMessage> messages(MessageBucket bucket) {
+        bucketReads.increment();
+        List<Document> documents = MessageBucketCodec.decompress(bucket.getPayload());
+        List<ChatMessage> messages = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            messages.add(mongoTemplate.getConverter().read(ChatMessage.class, document));
+        }
+        return messages;
+    }
+
+    private String messagesCollection() {
+        return mongoTemplate.getCollectionName(ChatMessage.class);
+    }
+
+    private static String idOf(Document document) {
+        Object id = document.get("_id");
+        return id instanceof ObjectId objectId ? objectId.toHexString() : String.valueOf(id);
+    }
+
+    private static final class LeaseLostException extends RuntimeException {
+        private LeaseLostException() {
+            super(null, null, false, false);
+        }
+    }
+}
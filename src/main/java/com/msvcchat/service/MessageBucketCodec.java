@@ -0,0 +1,62 @@
+package com.msvcchat.service;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Formato del contenido de un tramo archivado: los documentos de los mensajes, tal como estaban en
+ * "messages", en un array BSON comprimido con gzip. Conserva ObjectId y fechas sin conversiones.
+ */
+public final class MessageBucketCodec {
+
+    private static final DocumentCodec DOCUMENTS = new DocumentCodec();
+    private static final String MESSAGES = "m";
+
+    private MessageBucketCodec() {
+    }
+
+    /** BSON sin comprimir de los mensajes. */
+    public static byte[] encode(List<Document> messages) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            DOCUMENTS.encode(writer, new Document(MESSAGES, messages), EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    public static byte[] compress(byte[] bson) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bson.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bson);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static List<Document> decompress(byte[] payload) {
+        byte[] bson;
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            bson = gzip.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bson))) {
+            return DOCUMENTS.decode(reader, DecoderContext.builder().build()).getList(MESSAGES, Document.class);
+        }
+    }
+}
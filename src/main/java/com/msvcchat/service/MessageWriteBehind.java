@@ -0,0 +1,250 @@
+package com.msvcchat.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.config.reactor.SinkEmitters;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistencia diferida de los mensajes entrantes. Los mensajes se difunden antes de guardarse
+ * y se agrupan en {@code insertMany} no ordenados que se vacían al llegar a
+ * {@code chat.persistence.batch-size} o tras {@code chat.persistence.flush-interval}.
+ * La cola está acotada: si se llena, {@link #submit} rechaza el mensaje.
+ */
+@Slf4j
+@Service
+public class MessageWriteBehind {
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+    private static final Duration IDLE_POLL = Duration.ofMillis(50);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ChatProperties.Persistence config;
+    private final Sinks.Many<PendingWrite> queue;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Sinks.Empty<Void> terminated = Sinks.empty();
+    private final DistributionSummary batchSize;
+    private final Timer flushLatency;
+    private final Timer insertLatency;
+    private final Counter retries;
+    private final Counter failed;
+    private final Counter rejected;
+    private Disposable pipeline;
+
+    public MessageWriteBehind(ReactiveMongoTemplate mongoTemplate, ChatProperties properties, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.config = properties.getPersistence();
+        this.queue = Sinks.many().unicast().onBackpressureBuffer(Queues.<PendingWrite>get(config.getQueueCapacity()).get());
+        Gauge.builder("chat.persistence.queue.depth", depth, AtomicInteger::get)
+                .description("Mensajes aceptados pendientes de confirmar en Mongo")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("chat.persistence.batch.size")
+                .description("Mensajes por insertMany")
+                .register(meterRegistry);
+        this.flushLatency = Timer.builder("chat.persistence.flush")
+                .description("Duración de cada lote hasta quedar persistido, reintentos incluidos")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.insertLatency = Timer.builder("chat.persistence.insert")
+                .description("Latencia de cada insertMany contra Mongo")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.retries = Counter.builder("chat.persistence.retries").register(meterRegistry);
+        this.failed = Counter.builder("chat.persistence.failed")
+                .description("Mensajes descartados tras agotar los reintentos")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.persistence.rejected")
+                .description("Mensajes rechazados con la cola llena")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        pipeline = queue.asFlux()
+                .bufferTimeout(config.getBatchSize(), config.getFlushInterval(), true)
+                .flatMap(this::flush, config.getMaxInFlightBatches())
+                .doFinally(signal -> terminated.tryEmitEmpty())
+                .subscribe();
+    }
+
+    /**
+     * Encola el mensaje (con id ya asignado) y devuelve un Mono con el id con que quedó durable: el
+     * suyo o, si su clientMsgId ya estaba guardado en la sala, el del original, y entonces este no
+     * se guarda. El encolado ocurre en la llamada, no al suscribirse.
+     *
+     * @throws IllegalStateException si la cola está llena; el mensaje no debe difundirse
+     */
+    public Mono<String> submit(ChatMessage message) {
+        if (depth.incrementAndGet() > config.getQueueCapacity()) {
+            depth.decrementAndGet();
+            rejected.increment();
+            throw new IllegalStateException("Cola de persistencia llena");
+        }
+        PendingWrite write = new PendingWrite(message);
+        Sinks.EmitResult result = SinkEmitters.emitNext(queue, write);
+        if (result.isFailure()) {
+            depth.decrementAndGet();
+            rejected.increment();
+            throw new IllegalStateException("No se pudo encolar el mensaje: " + result);
+        }
+        return write.durable.asMono();
+    }
+
+    /** Completa cuando no queda ningún mensaje aceptado sin confirmar. */
+    public Mono<Void> idle() {
+        return Flux.interval(Duration.ZERO, IDLE_POLL)
+                .filter(tick -> depth.get() == 0)
+                .next()
+                .then();
+    }
+
+    @PreDestroy
+    void stop() {
+        // vacía lo pendiente antes de que se cierre el cliente de Mongo
+        queue.tryEmitComplete();
+        try {
+            terminated.asMono().block(config.getShutdownTimeout());
+        } catch (IllegalStateException e) {
+            log.warn("Persistencia no vaciada en {}, quedan {} mensajes", config.getShutdownTimeout(), depth.get());
+            pipeline.dispose();
+        }
+    }
+
+    private Mono<Void> flush(List<PendingWrite> batch) {
+        batchSize.record(batch.size());
+        Timer.Sample sample = Timer.start();
+        return write(batch, 0)
+                .doFinally(signal -> {
+                    sample.stop(flushLatency);
+                    depth.addAndGet(-batch.size());
+                });
+    }
+
+    private Mono<Void> write(List<PendingWrite> batch, int attempt) {
+        return insertUnordered(batch).flatMap(pending -> {
+            batch.stream().filter(w -> !pending.contains(w)).forEach(PendingWrite::succeed);
+            if (pending.isEmpty()) {
+                return Mono.empty();
+            }
+            if (attempt >= config.getMaxRetries()) {
+                failed.increment(pending.size());
+                pending.forEach(w -> w.fail(new IllegalStateException("Mensaje no persistido tras " + attempt + " reintentos")));
+                return Mono.empty();
+            }
+            retries.increment();
+            Duration backoff = config.getRetryBackoff().multipliedBy(1L << attempt);
+            return Mono.delay(backoff).then(write(pending, attempt + 1));
+        });
+    }
+
+    /**
+     * Inserta el lote y devuelve los que quedan por persistir. Un duplicado de un mensaje sin
+     * clientMsgId solo puede ser de _id: ya se guardó en un intento anterior y cuenta como
+     * persistido. Con clientMsgId se busca el guardado en la sala y su id dice qué clave chocó.
+     * El driver no conserva keyPattern en {@link BulkWriteError}, así que no se mira el mensaje.
+     */
+    private Mono<List<PendingWrite>> insertUnordered(List<PendingWrite> batch) {
+        List<Document> documents = batch.stream().map(w -> toDocument(w.message)).toList();
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(ChatMessage.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, UNORDERED)))
+                .transform(insert -> Mono.defer(() -> {
+                    Timer.Sample sample = Timer.start();
+                    return insert.doFinally(signal -> sample.stop(insertLatency));
+                }))
+                .map(result -> List.<PendingWrite>of())
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    if (e.getWriteConcernError() != null) {
+                        return Mono.just(batch);
+                    }
+                    List<PendingWrite> pending = new ArrayList<>();
+                    List<PendingWrite> retried = new ArrayList<>();
+                    for (BulkWriteError error : e.getWriteErrors()) {
+                        PendingWrite write = batch.get(error.getIndex());
+                        if (error.getCode() != DUPLICATE_KEY) {
+                            pending.add(write);
+                        } else if (write.message.getClientMsgId() != null) {
+                            retried.add(write);
+                        }
+                    }
+                    return Flux.fromIterable(retried)
+                            .concatMap(this::resolveOriginal)
+                            .doOnNext(pending::add)
+                            .then(Mono.just(pending));
+                })
+                .onErrorResume(e -> !(e instanceof MongoBulkWriteException), e -> {
+                    log.warn("Fallo al persistir lote de {} mensajes: {}", batch.size(), e.getMessage());
+                    return Mono.just(batch);
+                });
+    }
+
+    /**
+     * Confirma un duplicado con el id guardado para su clientMsgId: el suyo si lo que chocó fue el
+     * _id de un intento anterior, el del original si era un reintento del cliente. Si no se
+     * encuentra, o la consulta falla, se devuelve para insertarlo de nuevo.
+     */
+    private Mono<PendingWrite> resolveOriginal(PendingWrite write) {
+        ChatMessage message = write.message;
+        Query original = Query.query(Criteria.where("roomId").is(message.getRoomId())
+                .and("clientMsgId").is(message.getClientMsgId()));
+        original.fields().include("_id");
+        return mongoTemplate.findOne(original, ChatMessage.class)
+                .doOnNext(stored -> write.succeed(stored.getId()))
+                .hasElement()
+                .onErrorReturn(false)
+                .filter(resolved -> !resolved)
+                .map(unresolved -> write);
+    }
+
+    private Document toDocument(ChatMessage message) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(message, document);
+        return document;
+    }
+
+    private static final class PendingWrite {
+        private final ChatMessage message;
+        private final Sinks.One<String> durable = Sinks.one();
+
+        private PendingWrite(ChatMessage message) {
+            this.message = message;
+        }
+
+        void succeed() {
+            succeed(message.getId());
+        }
+
+        void succeed(String storedId) {
+            durable.tryEmitValue(storedId);
+        }
+
+        void fail(Throwable error) {
+            durable.tryEmitError(error);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.msvcchat.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.msvcchat.DTOs.RoomUnreadDto;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.entity.ReadCursor;
+import com.msvcchat.entity.Room;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cursores de lectura por usuario y sala. Las confirmaciones del WebSocket solo avanzan un puntero
+ * en memoria; cada {@code chat.receipts.flush-interval} los punteros que han cambiado se vuelcan
+ * con un único bulkWrite no ordenado. La lista de salas con no leídos se resuelve con una sola
+ * agregación por usuario que cuenta, con el índice de mensajes, lo posterior a cada cursor.
+ */
+@Slf4j
+@Service
+public class ReadReceiptService {
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    private static final ObjectId MIN_ID = new ObjectId("000000000000000000000000");
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ChatProperties.Receipts config;
+    // punteros pendientes de volcar, por "{roomId}:{userId}"
+    private final Map<String, Pointer> dirty = new ConcurrentHashMap<>();
+    private final Counter flushed;
+    private Disposable flusher;
+
+    public ReadReceiptService(ReactiveMongoTemplate mongoTemplate, ChatProperties properties, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.config = properties.getReceipts();
+        Gauge.builder("chat.receipts.pending", dirty, Map::size)
+                .description("Cursores de lectura pendientes de volcar a Mongo")
+                .register(meterRegistry);
+        this.flushed = Counter.builder("chat.receipts.flushed")
+                .description("Cursores de lectura volcados a Mongo")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        flusher = Flux.interval(config.getFlushInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> flush())
+                .subscribe();
+    }
+
+    @PreDestroy
+    void stop() {
+        flusher.dispose();
+        flush().block(config.getShutdownTimeout());
+    }
+
+    /**
+     * Avanza el cursor de lectura; uno anterior al pendiente de volcar se ignora, y el upsert
+     * descarta también los anteriores al ya guardado.
+     *
+     * @return true si el cursor avanzó y conviene avisar a la sala
+     */
+    public boolean markRead(String roomId, String userId, String messageId, Instant createdAt) {
+        Pointer read = new Pointer(roomId, userId, createdAt, messageId);
+        boolean[] advanced = {false};
+        dirty.compute(ReadCursor.idOf(roomId, userId), (key, current) -> {
+            if (current == null || read.isAfter(current)) {
+                advanced[0] = true;
+                return read;
+            }
+            return current;
+        });
+        return advanced[0];
+    }
+
+    /**
+     * Salas del usuario con sus no leídos, en una agregación sobre "rooms": busca el cursor de cada
+     * sala por _id y cuenta los mensajes de otros posteriores a él, cortando en {@code unread-cap}.
+     * Lo confirmado en el último {@code flush-interval} puede no estar reflejado aún.
+     */
+    public Flux<RoomUnreadDto> unreadRooms(String userId) {
+        int cap = config.getUnreadCap();
+        Document roomIdAsString = new Document("$toString", "$_id");
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("$or", List.of(
+                        new Document("users", userId), new Document("trainers", userId)))),
+                new Document("$addFields", new Document("roomId", roomIdAsString)
+                        .append("cursorId", new Document("$concat", List.of(roomIdAsString, ":" + userId)))),
+                new Document("$lookup", new Document("from", collection(ReadCursor.class))
+                        .append("localField", "cursorId")
+                        .append("foreignField", "_id")
+                        .append("as", "cursor")),
+                new Document("$set", new Document("cursor", new Document("$first", "$cursor"))),
+                new Document("$lookup", new Document("from", collection(ChatMessage.class))
+                        .append("let", new Document("roomId", "$roomId")
+                                .append("at", new Document("$ifNull", List.of("$cursor.lastReadAt", new Date(0))))
+                                .append("id", new Document("$ifNull", List.of("$cursor.lastReadId", MIN_ID))))
+                        .append("pipeline", List.of(
+                                // igualdad y $gte dentro de $expr usan room_created_idx; el desempate por _id filtra después
+                                new Document("$match", new Document("$expr", new Document("$and", List.of(
+                                        new Document("$eq", List.of("$roomId", "$$roomId")),
+                                        new Document("$gte", List.of("$createdAt", "$$at")),
+                                        new Document("$or", List.of(
+                                                new Document("$gt", List.of("$createdAt", "$$at")),
+                                                new Document("$gt", List.of("$_id", "$$id")))),
+                                        new Document("$ne", List.of("$fromId", userId)))))),
+                                new Document("$limit", cap + 1),
+                                new Document("$count", "n")))
+                        .append("as", "unread")),
+                new Document("$project", new Document("_id", 0)
+                        .append("roomId", 1)
+                        .append("lastReadId", new Document("$toString", "$cursor.lastReadId"))
+                        .append("lastReadAt", "$cursor.lastReadAt")
+                        .append("unread", new Document("$ifNull", List.of(new Document("$first", "$unread.n"), 0)))));
+        return mongoTemplate.getCollection(collection(Room.class))
+                .flatMapMany(rooms -> rooms.aggregate(pipeline))
+                .map(row -> {
+                    long unread = ((Number) row.get("unread")).longValue();
+                    Date lastReadAt = row.getDate("lastReadAt");
+                    return new RoomUnreadDto(row.getString("roomId"), Math.min(unread, cap), unread > cap,
+                            row.getString("lastReadId"), lastReadAt != null ? lastReadAt.toInstant() : null);
+                });
+    }
+
+    /**
+     * Vuelca los punteros pendientes. Solo se quita de la cola lo que se ha tomado, así que una
+     * lectura que llega durante el volcado queda para el siguiente.
+     */
+    Mono<Void> flush() {
+        List<Pointer> batch = new ArrayList<>(dirty.size());
+        dirty.forEach((key, pointer) -> {
+            if (dirty.remove(key, pointer)) {
+                batch.add(pointer);
+            }
+        });
+        if (batch.isEmpty()) {
+            return Mono.empty();
+        }
+        List<WriteModel<Document>> writes = batch.stream().map(ReadReceiptService::upsert).toList();
+        return mongoTemplate.getCollection(collection(ReadCursor.class))
+                .flatMap(cursors -> Mono.from(cursors.bulkWrite(writes, UNORDERED)))
+                .doOnNext(result -> flushed.increment(batch.size()))
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    // duplicado = el cursor guardado ya iba por delante (ver upsert)
+                    long lost = e.getWriteErrors().stream().filter(error -> error.getCode() != DUPLICATE_KEY).count();
+                    if (lost > 0) {
+                        log.warn("No se pudieron volcar {} cursores de lectura: {}", lost, e.getMessage());
+                    }
+                    return Mono.empty();
+                })
+                .onErrorResume(e -> {
+                    // se devuelven a la cola salvo que ya haya uno más reciente
+                    batch.forEach(p -> dirty.merge(p.key(), p, (current, failed) -> failed.isAfter(current) ? failed : current));
+                    log.warn("Fallo al volcar {} cursores de lectura: {}", batch.size(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Upsert que solo avanza el cursor: si el guardado ya es posterior el filtro no encaja, el
+     * upsert intenta insertar el mismo _id y falla con duplicado, que se ignora.
+     */
+    private static WriteModel<Document> upsert(Pointer pointer) {
+        Date at = Date.from(pointer.createdAt());
+        Object id = ObjectId.isValid(pointer.messageId()) ? new ObjectId(pointer.messageId()) : pointer.messageId();
+        Document filter = new Document("_id", pointer.key())
+                .append("$or", List.of(
+                        new Document("lastReadAt", new Document("$lt", at)),
+                        new Document("lastReadAt", at).append("lastReadId", new Document("$lt", id))));
+        Document update = new Document("$set", new Document("roomId", pointer.roomId())
+                .append("userId", pointer.userId())
+                .append("lastReadAt", at)
+                .append("lastReadId", id)
+                .append("updatedAt", new Date()));
+        return new UpdateOneModel<>(filter, update, UPSERT);
+    }
+
+    private String collection(Class<?> entity) {
+        return mongoTemplate.getCollectionName(entity);
+    }
+
+    private record Pointer(String roomId, String userId, Instant createdAt, String messageId) {
+
+        String key() {
+            return ReadCursor.idOf(roomId, userId);
+        }
+
+        boolean isAfter(Pointer other) {
+            int byTime = createdAt.compareTo(other.createdAt);
+            return byTime != 0 ? byTime > 0 : messageId.compareTo(other.messageId) > 0;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.msvcchat.service;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.Room;
+import com.msvcchat.repositories.RoomRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonValue;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Miembros de cada sala (users y trainers de la colección "rooms") cacheados en memoria para
+ * autorizar el handshake sin consultar Mongo en cada conexión. Las entradas caducan por TTL, se
+ * recargan en segundo plano al leerlas pasado {@code refresh-after-write} y se actualizan al guardar
+ * o borrar una sala desde esta instancia; los cambios hechos desde fuera llegan por
+ * {@link RoomMembershipWatcher} cuando el cluster está activo, o como mucho al caducar.
+ */
+@Slf4j
+@Service
+public class RoomMembershipService extends AbstractMongoEventListener<Room> {
+
+    public static final String USER = "USER";
+    public static final String TRAINER = "TRAINER";
+
+    private final RoomRepository rooms;
+    private final boolean enabled;
+    // userId -> rol con que participa en la sala
+    private final AsyncLoadingCache<String, Map<String, String>> members;
+
+    public RoomMembershipService(RoomRepository rooms, ChatProperties properties, MeterRegistry meterRegistry) {
+        ChatProperties.Membership config = properties.getMembership();
+        this.rooms = rooms;
+        this.enabled = config.isEnabled();
+        // una sala inexistente se cachea como vacía: nadie puede entrar hasta que se cree
+        this.members = Caffeine.newBuilder()
+                .expireAfterWrite(config.getExpireAfterWrite())
+                .refreshAfterWrite(config.getRefreshAfterWrite())
+                .maximumSize(config.getMaximumSize())
+                .recordStats()
+                .buildAsync((roomId, executor) -> rooms.findById(roomId)
+                        .map(RoomMembershipService::membersOf)
+                        .defaultIfEmpty(Map.of())
+                        .toFuture());
+        CaffeineCacheMetrics.monitor(meterRegistry, members, "room-membership");
+    }
+
+    /** Si el usuario es miembro de la sala; en el caso habitual se resuelve en memoria. */
+    public Mono<Boolean> isMember(String roomId, String userId) {
+        if (!enabled) {
+            return Mono.just(Boolean.TRUE);
+        }
+        // la cancelación de un handshake no debe cancelar la carga compartida con otros
+        return Mono.fromFuture(() -> members.get(roomId), true)
+                .map(roomMembers -> roomMembers.containsKey(userId));
+    }
+
+    /**
+     * Rol del usuario en la sala, {@link #USER} o {@link #TRAINER}; vacío si no es miembro o si la
+     * comprobación de miembros está desactivada.
+     */
+    public Mono<String> roleOf(String roomId, String userId) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        return Mono.fromFuture(() -> members.get(roomId), true)
+                .mapNotNull(roomMembers -> roomMembers.get(userId));
+    }
+
+    public void invalidate(String roomId) {
+        members.synchronous().invalidate(roomId);
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Room> event) {
+        Room room = event.getSource();
+        members.put(room.getId(), CompletableFuture.completedFuture(membersOf(room)));
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Room> event) {
+        String roomId = idOf(event.getSource().get("_id"));
+        if (roomId != null) {
+            invalidate(roomId);
+        } else {
+            // borrado por criterio: no se sabe qué salas han caído
+            members.synchronous().invalidateAll();
+        }
+    }
+
+    /** Id de sala de un documento o clave de change stream; null si no es un id simple. */
+    static String idOf(Object id) {
+        if (id instanceof BsonValue bson) {
+            return bson.isString() ? bson.asString().getValue()
+                    : bson.isObjectId() ? bson.asObjectId().getValue().toHexString()
+                    : null;
+        }
+        if (id instanceof ObjectId objectId) {
+            return objectId.toHexString();
+        }
+        return id instanceof String value ? value : null;
+    }
+
+    private static Map<String, String> membersOf(Room room) {
+        Map<String, String> all = new HashMap<>();
+        if (room.getUsers() != null) {
+            room.getUsers().forEach(user -> all.put(user, USER));
+        }
+        if (room.getTrainers() != null) {
+            // quien figure en las dos listas escribe como entrenador
+            room.getTrainers().forEach(trainer -> all.put(trainer, TRAINER));
+        }
+        return Map.copyOf(all);
+    }
+}
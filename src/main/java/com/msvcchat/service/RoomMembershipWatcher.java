@@ -0,0 +1,76 @@
+package com.msvcchat.service;
+
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.Room;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
+
+import java.util.List;
+
+/**
+ * Invalida la caché de miembros con los cambios de "rooms" hechos por otras instancias u otros
+ * servicios. Empieza desde el momento del arranque: lo anterior ya no está en la caché y lo que
+ * se pierda mientras el stream se reabre lo cubre el TTL. Requiere replica set, como la difusión
+ * de cluster.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.cluster", name = "enabled", havingValue = "true")
+public class RoomMembershipWatcher {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final RoomMembershipService membership;
+    private final ChatProperties.Cluster config;
+    private Disposable subscription;
+
+    public RoomMembershipWatcher(ReactiveMongoTemplate mongoTemplate, RoomMembershipService membership,
+                                 ChatProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.membership = membership;
+        this.config = properties.getCluster();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        ChangeStreamOptions options = ChangeStreamOptions.builder()
+                .filter(new Document("$match", new Document("operationType",
+                        new Document("$in", List.of("insert", "update", "replace", "delete")))))
+                .build();
+        subscription = Flux.defer(() -> mongoTemplate.changeStream(
+                        mongoTemplate.getCollectionName(Room.class), options, Document.class))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, config.getMinBackoff())
+                        .maxBackoff(config.getMaxBackoff())
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> log.warn("Reabriendo change stream de salas: {}",
+                                signal.failure().getMessage())))
+                .subscribe(this::invalidate, e -> log.error("Change stream de salas detenido", e));
+    }
+
+    @PreDestroy
+    void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    private void invalidate(ChangeStreamEvent<Document> event) {
+        if (event.getRaw() == null || event.getRaw().getDocumentKey() == null) {
+            return;
+        }
+        String roomId = RoomMembershipService.idOf(event.getRaw().getDocumentKey().get("_id"));
+        if (roomId != null) {
+            membership.invalidate(roomId);
+        }
+    }
+}
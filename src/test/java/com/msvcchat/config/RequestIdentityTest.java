@@ -0,0 +1,43 @@
+package com.msvcchat.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestIdentityTest {
+
+    @Test
+    void userHeaderIsTrustedOnlyWithTheGatewaySecret() {
+        RequestIdentity identity = identity("s3cret");
+
+        assertThat(identity.userId(exchange(MockServerHttpRequest.get("/ws/chat/room-1")
+                .header("X-User-Id", "u1")
+                .header("X-Gateway-Secret", "s3cret"))).block()).isEqualTo("u1");
+        assertThat(identity.userId(exchange(MockServerHttpRequest.get("/ws/chat/room-1")
+                .header("X-User-Id", "u1")
+                .header("X-Gateway-Secret", "otro"))).block()).isNull();
+        assertThat(identity.userId(exchange(MockServerHttpRequest.get("/ws/chat/room-1")
+                .header("X-User-Id", "u1"))).block()).isNull();
+    }
+
+    @Test
+    void withoutASecretNeitherHeaderNorQueryParamIdentifies() {
+        RequestIdentity identity = identity(null);
+
+        assertThat(identity.userId(exchange(MockServerHttpRequest.get("/ws/chat/room-1?userId=u1")
+                .header("X-User-Id", "u1")
+                .header("X-Gateway-Secret", ""))).block()).isNull();
+    }
+
+    private static RequestIdentity identity(String secret) {
+        ChatProperties properties = new ChatProperties();
+        properties.getIdentity().setGatewaySecret(secret);
+        return new RequestIdentity(properties);
+    }
+
+    private static MockServerWebExchange exchange(MockServerHttpRequest.BaseBuilder<?> request) {
+        return MockServerWebExchange.from(request);
+    }
+}
@@ -0,0 +1,116 @@
+package com.msvcchat.config.websockets;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Contra un replica set real, como el de compose.dev.yml:
+ * {@code CHAT_TEST_MONGODB_URI=mongodb://localhost:27017/?replicaSet=rs0&directConnection=true}.
+ */
+@EnabledIfEnvironmentVariable(named = "CHAT_TEST_MONGODB_URI", matches = ".+")
+class ClusterFanoutTest {
+
+    private MongoClient client;
+    private ReactiveMongoTemplate mongoTemplate;
+    private final ChatProperties properties = new ChatProperties();
+
+    @BeforeEach
+    void setUp() {
+        client = MongoClients.create(System.getenv("CHAT_TEST_MONGODB_URI"));
+        mongoTemplate = new ReactiveMongoTemplate(client, "chat_fanout_test_" + new ObjectId());
+        ChatProperties.Cluster cluster = properties.getCluster();
+        cluster.setEnabled(true);
+        cluster.setInstanceId("node-a");
+        // sin margen: lo que llegue tras el reinicio solo puede venir del token persistido
+        cluster.setResubscribeLookback(Duration.ZERO);
+        cluster.setTokenFlushInterval(Duration.ofMillis(100));
+    }
+
+    @AfterEach
+    void tearDown() {
+        mongoTemplate.getMongoDatabase().flatMap(db -> Mono.from(db.drop())).block();
+        client.close();
+    }
+
+    @Test
+    void restartResumesFromThePersistedToken() throws InterruptedException {
+        RoomChannel before = mock(RoomChannel.class);
+        ClusterFanout first = fanout(before);
+        first.start();
+        awaitStreamOpen(before);
+        ChatMessage delivered = insert("antes del reinicio");
+        verify(before, timeout(5_000)).publishRemote(delivered);
+        first.stop();
+
+        ChatMessage whileDown = insert("con la instancia parada");
+        Thread.sleep(500);
+
+        RoomChannel after = mock(RoomChannel.class);
+        ClusterFanout second = fanout(after);
+        second.start();
+        try {
+            ArgumentCaptor<ChatMessage> published = ArgumentCaptor.forClass(ChatMessage.class);
+            verify(after, timeout(5_000)).publishRemote(published.capture());
+            assertThat(published.getValue().getId()).isEqualTo(whileDown.getId());
+        } finally {
+            second.stop();
+        }
+    }
+
+    private ClusterFanout fanout(RoomChannel room) {
+        RoomChannelRegistry rooms = mock(RoomChannelRegistry.class);
+        when(rooms.roomsChanged()).thenReturn(Flux.never());
+        when(rooms.activeRooms()).thenReturn(Set.of("room-1"));
+        when(rooms.find("room-1")).thenReturn(room);
+        return new ClusterFanout(mongoTemplate, rooms, properties, new SimpleMeterRegistry());
+    }
+
+    /** El stream se abre de forma asíncrona: se insertan sondas hasta que llega una. */
+    private void awaitStreamOpen(RoomChannel room) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            ChatMessage probe = insert("sonda " + i);
+            Thread.sleep(100);
+            try {
+                verify(room, timeout(100)).publishRemote(probe);
+                return;
+            } catch (AssertionError notYet) {
+                // sigue abriéndose
+            }
+        }
+        throw new AssertionError("El change stream no llegó a abrirse");
+    }
+
+    private ChatMessage insert(String text) {
+        ChatMessage message = new ChatMessage();
+        message.setId(new ObjectId().toHexString());
+        message.setRoomId("room-1");
+        message.setFromId("u1");
+        message.setText(text);
+        message.setOriginNode("node-b");
+        message.setCreatedAt(Instant.now().truncatedTo(ChronoUnit.MILLIS));
+        return mongoTemplate.insert(message).block();
+    }
+}
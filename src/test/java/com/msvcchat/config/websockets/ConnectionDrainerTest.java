@@ -0,0 +1,34 @@
+package com.msvcchat.config.websockets;
+
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.service.MessageWriteBehind;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConnectionDrainerTest {
+
+    @Test
+    void sessionsAreClosedEvenIfPersistenceNeverGoesIdle() {
+        ChatProperties properties = new ChatProperties();
+        properties.getSessions().setDrainTimeout(Duration.ofMillis(400));
+        MessageWriteBehind writeBehind = mock(MessageWriteBehind.class);
+        when(writeBehind.idle()).thenReturn(Mono.never());
+        SessionRegistry sessions = new SessionRegistry();
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s-1");
+        when(session.close(CloseStatus.SERVICE_RESTARTED)).thenReturn(Mono.fromRunnable(() -> sessions.unregister(session)));
+        sessions.register(session, "room-1", "u1");
+
+        new ConnectionDrainer(sessions, writeBehind, properties).stop();
+
+        verify(session).close(CloseStatus.SERVICE_RESTARTED);
+    }
+}
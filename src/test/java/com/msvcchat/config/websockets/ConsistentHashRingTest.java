@@ -0,0 +1,48 @@
+package com.msvcchat.config.websockets;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final List<String> ROOMS = IntStream.range(0, 10_000).mapToObj(i -> "room-" + i).toList();
+
+    @Test
+    void everyNodeGetsAFairShare() {
+        ConsistentHashRing<String> ring = ring(List.of("a", "b", "c", "d"));
+
+        Map<String, Integer> perNode = new HashMap<>();
+        ROOMS.forEach(room -> perNode.merge(ring.owner(room), 1, Integer::sum));
+
+        assertThat(perNode).hasSize(4);
+        assertThat(perNode.values()).allSatisfy(count -> assertThat(count).isBetween(1_750, 3_250));
+    }
+
+    @Test
+    void addingANodeOnlyMovesRoomsToIt() {
+        ConsistentHashRing<String> before = ring(List.of("a", "b", "c"));
+        ConsistentHashRing<String> after = ring(List.of("a", "b", "c", "d"));
+
+        long moved = ROOMS.stream().filter(room -> !before.owner(room).equals(after.owner(room))).count();
+
+        assertThat(ROOMS).allSatisfy(room -> assertThat(after.owner(room))
+                .isIn(before.owner(room), "d"));
+        assertThat(moved).isBetween(1_750L, 3_250L);
+    }
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertThat(ring(List.of()).owner("room-1")).isNull();
+    }
+
+    private static ConsistentHashRing<String> ring(List<String> nodes) {
+        return new ConsistentHashRing<>(nodes, Function.identity(), 128);
+    }
+}
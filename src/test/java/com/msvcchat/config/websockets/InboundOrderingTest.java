@@ -0,0 +1,143 @@
+package com.msvcchat.config.websockets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InboundOrderingTest {
+
+    private final ChatCodec codec = new ChatCodec(new ObjectMapper().findAndRegisterModules());
+    private final Scheduler scheduler = Schedulers.newParallel("test-inbound", 8);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Test
+    void decodePreservesArrivalOrderWhileDecodingInParallel() {
+        ChatProperties properties = new ChatProperties();
+        properties.getInbound().setDecodeConcurrency(16);
+        InboundPipeline pipeline = new InboundPipeline(codec, scheduler, properties, new SimpleMeterRegistry());
+        Map<String, Boolean> decodeThreads = Collections.synchronizedMap(new HashMap<>());
+
+        // tamaños muy distintos para que los frames terminen de decodificarse desordenados
+        Flux<byte[]> frames = Flux.range(0, 2_000)
+                .map(i -> ("{\"fromId\":\"u1\",\"text\":\"" + i + ":" + "x".repeat((i % 7) * 4_000) + "\"}")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        List<Integer> decoded = pipeline.decode(frames)
+                .doOnNext(m -> decodeThreads.put(Thread.currentThread().getName(), Boolean.TRUE))
+                .map(m -> Integer.parseInt(m.text().substring(0, m.text().indexOf(':'))))
+                .collectList()
+                .block();
+
+        assertThat(decoded).containsExactlyElementsOf(IntStream.range(0, 2_000).boxed().toList());
+        assertThat(decodeThreads.keySet()).allMatch(name -> name.startsWith("test-inbound"));
+    }
+
+    @Test
+    void roomSequenceKeepsFifoAcrossConcurrentSenders() throws InterruptedException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Map<Sinks.EmitResult, Counter> emitResults = new EnumMap<>(Sinks.EmitResult.class);
+        for (Sinks.EmitResult result : Sinks.EmitResult.values()) {
+            emitResults.put(result, meterRegistry.counter("emit", "result", result.name()));
+        }
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults,
+                new RecentMessageCache(new ChatProperties(), codec, null, new SimpleMeterRegistry()));
+        List<ChatMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        room.asFlux().subscribe(frame -> delivered.add(frame.message()));
+
+        int senders = 8;
+        int perSender = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int s = 0; s < senders; s++) {
+            String sender = "u" + s;
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < perSender; i++) {
+                    ChatMessage msg = new ChatMessage();
+                    msg.setFromId(sender);
+                    msg.setText(String.valueOf(i));
+                    room.sequence(msg, room::publish);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(delivered).hasSize(senders * perSender);
+        assertThat(emitResults.get(Sinks.EmitResult.OK).count()).isEqualTo(senders * perSender);
+        Map<String, Integer> lastPerSender = new HashMap<>();
+        for (int i = 0; i < delivered.size(); i++) {
+            ChatMessage current = delivered.get(i);
+            if (i > 0) {
+                ChatMessage previous = delivered.get(i - 1);
+                // orden de entrega == orden keyset (createdAt, id)
+                assertThat(current.getCreatedAt()).isAfterOrEqualTo(previous.getCreatedAt());
+                assertThat(new ObjectId(current.getId())).isGreaterThan(new ObjectId(previous.getId()));
+            }
+            int seq = Integer.parseInt(current.getText());
+            Integer last = lastPerSender.put(current.getFromId(), seq);
+            assertThat(seq).isEqualTo(last == null ? 0 : last + 1);
+        }
+    }
+
+    @Test
+    void localMessagesAfterARemoteOneAreNotSequencedBeforeIt() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Map<Sinks.EmitResult, Counter> emitResults = new EnumMap<>(Sinks.EmitResult.class);
+        for (Sinks.EmitResult result : Sinks.EmitResult.values()) {
+            emitResults.put(result, meterRegistry.counter("emit", "result", result.name()));
+        }
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults,
+                new RecentMessageCache(new ChatProperties(), codec, null, new SimpleMeterRegistry()));
+        List<ChatMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        room.asFlux().subscribe(frame -> delivered.add(frame.message()));
+
+        // otra instancia con el reloj adelantado
+        Instant ahead = Instant.now().plusSeconds(5).truncatedTo(ChronoUnit.MILLIS);
+        ChatMessage remote = new ChatMessage();
+        remote.setId(new ObjectId(Date.from(ahead)).toHexString());
+        remote.setRoomId("room-1");
+        remote.setCreatedAt(ahead);
+        room.publishRemote(remote);
+        ChatMessage local = room.sequence(new ChatMessage(), msg -> {
+            room.publish(msg);
+            return msg;
+        });
+
+        assertThat(delivered).containsExactly(remote, local);
+        assertThat(local.getCreatedAt()).isAfterOrEqualTo(remote.getCreatedAt());
+    }
+}
@@ -0,0 +1,226 @@
+package com.msvcchat.config.websockets;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.msvcchat.DTOs.HistoryCursor;
+import com.msvcchat.DTOs.HistoryQuery;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.repositories.ChatMessageRepository;
+import com.msvcchat.service.ChatHistoryService;
+import com.msvcchat.service.MessageArchive;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RecentMessageCacheTest {
+
+    private static final Instant BASE = Instant.parse("2025-01-01T00:00:00Z");
+
+    private final ChatCodec codec = new ChatCodec(new ObjectMapper().findAndRegisterModules());
+    private final ChatMessageRepository repo = mock(ChatMessageRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<Sinks.EmitResult, Counter> emitResults = new EnumMap<>(Sinks.EmitResult.class);
+    private final ChatProperties properties = new ChatProperties();
+
+    @BeforeEach
+    void setUp() {
+        for (Sinks.EmitResult result : Sinks.EmitResult.values()) {
+            emitResults.put(result, meterRegistry.counter("emit", "result", result.name()));
+        }
+    }
+
+    @Test
+    void firstReplaySeedsTheRoomAndLaterOnesAreServedFromMemory() {
+        stored("room-1", 0, 3);
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+
+        assertThat(ids(cache.replay(room, HistoryQuery.latest()))).containsExactly(id(0), id(1), id(2));
+        room.publish(message("room-1", 3));
+
+        assertThat(ids(cache.replay(room, HistoryQuery.latest()))).containsExactly(id(0), id(1), id(2), id(3));
+        assertThat(ids(cache.replay(room, new HistoryQuery(null, cursor(1), null)))).containsExactly(id(2), id(3));
+        assertThat(ids(cache.replay(room, new HistoryQuery(cursor(2), null, 1)))).containsExactly(id(1));
+        verify(repo, times(1)).findByRoomIdOrderByCreatedAtDescIdDesc(eq("room-1"), any(Limit.class));
+        assertThat(meterRegistry.get("chat.history.cache.requests").tag("result", "hit").counter().count()).isEqualTo(3);
+    }
+
+    @Test
+    void aMessageThatWasNotStoredCanBeRemoved() {
+        stored("room-1", 0, 2);
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+        cache.replay(room, HistoryQuery.latest()).blockLast();
+        room.publish(message("room-1", 2));
+
+        cache.remove("room-1", id(2));
+
+        assertThat(ids(cache.replay(room, HistoryQuery.latest()))).containsExactly(id(0), id(1));
+    }
+
+    @Test
+    void rangesOlderThanTheRingGoToMongo() {
+        properties.getHistory().setCacheRoomCapacity(3);
+        stored("room-1", 2, 5);
+        when(repo.findPageBefore(eq("room-1"), any(Instant.class), anyString(), any(Limit.class)))
+                .thenReturn(Flux.just(message("room-1", 1), message("room-1", 0)));
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+
+        assertThat(ids(cache.replay(room, new HistoryQuery(null, null, 2)))).containsExactly(id(3), id(4));
+        assertThat(ids(cache.replay(room, new HistoryQuery(cursor(3), null, 2)))).containsExactly(id(0), id(1));
+        verify(repo).findPageBefore(eq("room-1"), any(Instant.class), anyString(), any(Limit.class));
+    }
+
+    @Test
+    void overBudgetEvictsTheLeastRecentlyReadRoom() {
+        properties.getHistory().setCacheMaxMemory(DataSize.ofKilobytes(2));
+        stored("room-1", 0, 4);
+        stored("room-2", 0, 4);
+        RecentMessageCache cache = cache();
+        RoomChannel first = new RoomChannel("room-1", codec, emitResults, cache);
+        RoomChannel second = new RoomChannel("room-2", codec, emitResults, cache);
+
+        cache.replay(first, HistoryQuery.latest()).blockLast();
+        cache.replay(second, HistoryQuery.latest()).blockLast();
+        cache.replay(first, HistoryQuery.latest()).blockLast();
+
+        assertThat(meterRegistry.get("chat.history.cache.evictions").counter().count()).isPositive();
+        assertThat(meterRegistry.get("chat.history.cache.bytes").gauge().value()).isLessThanOrEqualTo(2048);
+    }
+
+    @Test
+    void theRingGrowsWithTheRoomUpToItsCapacity() {
+        properties.getHistory().setCacheRoomCapacity(20);
+        stored("room-1", 0, 3);
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+
+        cache.replay(room, HistoryQuery.latest()).blockLast();
+        IntStream.range(3, 25).forEach(i -> room.publish(message("room-1", i)));
+
+        // al crecer conserva el orden y, una vez lleno, descarta los más antiguos
+        assertThat(ids(cache.replay(room, new HistoryQuery(null, null, 20))))
+                .containsExactlyElementsOf(IntStream.range(5, 25).mapToObj(RecentMessageCacheTest::id).toList());
+    }
+
+    @Test
+    void aQuietRoomOnlyPaysForTheSlotsItUses() {
+        properties.getHistory().setCacheRoomCapacity(100_000);
+        stored("room-1", 0, 3);
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+
+        cache.replay(room, HistoryQuery.latest()).blockLast();
+
+        long frames = IntStream.range(0, 3)
+                .mapToLong(i -> 2L * codec.encode(message("room-1", i)).payload().length + 128)
+                .sum();
+        assertThat(meterRegistry.get("chat.history.cache.bytes").gauge().value()).isEqualTo(frames + 16 * 8);
+    }
+
+    @Test
+    void liveMessagesMatchTheirStoredCopies() {
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+        ChatMessage live = room.sequence(message("room-1", 0), sequenced -> {
+            room.publish(sequenced);
+            return sequenced;
+        });
+        ChatMessage stored = asStored(live);
+        when(repo.findByRoomIdOrderByCreatedAtDescIdDesc(eq("room-1"), any(Limit.class)))
+                .thenReturn(Flux.just(stored));
+
+        // la siembra encuentra en Mongo el último publicado y el eco del change stream no se duplica
+        assertThat(ids(cache.replay(room, HistoryQuery.latest()))).containsExactly(live.getId());
+        room.publish(stored);
+        assertThat(ids(cache.replay(room, HistoryQuery.latest()))).containsExactly(live.getId());
+        assertThat(HistoryCursor.compare(live, stored.getCreatedAt(), stored.getId())).isZero();
+        verify(repo, times(1)).findByRoomIdOrderByCreatedAtDescIdDesc(eq("room-1"), any(Limit.class));
+    }
+
+    @Test
+    void resumingFromTheLastLiveMessageSkipsIt() {
+        RecentMessageCache cache = cache();
+        RoomChannel room = new RoomChannel("room-1", codec, emitResults, cache);
+        stored("room-1", 0, 1);
+        cache.replay(room, HistoryQuery.latest()).blockLast();
+        ChatMessage live = room.sequence(message("room-1", 1), sequenced -> {
+            room.publish(sequenced);
+            return sequenced;
+        });
+        // el cliente solo conoce el cursor en texto, con milisegundos
+        String lastSeen = HistoryCursor.of(live).encode();
+
+        HistoryQuery query = new ChatHistoryService(repo, properties, mock(MessageArchive.class))
+                .resume("room-1", HistoryQuery.latest(), lastSeen).block();
+
+        assertThat(ids(cache.replay(room, query))).isEmpty();
+    }
+
+    private RecentMessageCache cache() {
+        return new RecentMessageCache(properties, codec, new ChatHistoryService(repo, properties, mock(MessageArchive.class)), meterRegistry);
+    }
+
+    private void stored(String roomId, int from, int to) {
+        // el repositorio devuelve de más reciente a más antiguo
+        List<ChatMessage> newestFirst = IntStream.range(from, to).map(i -> to - 1 - (i - from))
+                .mapToObj(i -> message(roomId, i))
+                .toList();
+        when(repo.findByRoomIdOrderByCreatedAtDescIdDesc(eq(roomId), any(Limit.class)))
+                .thenReturn(Flux.fromIterable(newestFirst));
+    }
+
+    private static List<String> ids(Flux<ChatFrame> frames) {
+        return frames.map(frame -> frame.message().getId()).collectList().block();
+    }
+
+    private static ChatMessage message(String roomId, int seq) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id(seq));
+        message.setRoomId(roomId);
+        message.setFromId("u1");
+        message.setText("m" + seq);
+        message.setCreatedAt(BASE.plusSeconds(seq));
+        return message;
+    }
+
+    /** Copia tal como vuelve de Mongo, que guarda las fechas en milisegundos. */
+    private static ChatMessage asStored(ChatMessage live) {
+        ChatMessage stored = message(live.getRoomId(), 0);
+        stored.setId(live.getId());
+        stored.setText(live.getText());
+        stored.setCreatedAt(Date.from(live.getCreatedAt()).toInstant());
+        return stored;
+    }
+
+    private static String id(int seq) {
+        return new ObjectId(Date.from(BASE.plusSeconds(seq)), seq).toHexString();
+    }
+
+    private static HistoryCursor cursor(int seq) {
+        return new HistoryCursor(BASE.plusSeconds(seq), id(seq));
+    }
+}
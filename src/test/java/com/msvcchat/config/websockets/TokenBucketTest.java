@@ -0,0 +1,53 @@
+package com.msvcchat.config.websockets;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void allowsTheBurstThenRefillsAtTheConfiguredRate() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = 1_000 * SECOND;
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.tryAcquire(now)).isZero();
+        }
+        long wait = bucket.tryAcquire(now);
+        assertThat(wait).isPositive().isLessThanOrEqualTo(SECOND / 10);
+
+        assertThat(bucket.tryAcquire(now + wait)).isZero();
+        assertThat(bucket.tryAcquire(now + wait)).isPositive();
+        // tras un segundo parado vuelve a estar lleno, pero no por encima de la ráfaga
+        long later = now + wait + SECOND;
+        assertThat(IntStream.range(0, 10).filter(i -> bucket.tryAcquire(later) == 0).count()).isEqualTo(5);
+    }
+
+    @Test
+    void concurrentCallersNeverGetMoreThanTheBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 100);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    if (bucket.tryAcquire(now) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(granted).hasValue(100);
+    }
+}
@@ -0,0 +1,34 @@
+package com.msvcchat.mappers;
+
+import com.msvcchat.DTOs.ChatMessageDto;
+import com.msvcchat.entity.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatMessageMapperTest {
+
+    private final ChatMessageMapper mapper = new ChatMessageMapperImpl();
+
+    @Test
+    void copiesEveryField() {
+        ChatMessage message = new ChatMessage();
+        message.setId("65f0c0ffee0000000000abcd");
+        message.setRoomId("room-1");
+        message.setFromId("u1");
+        message.setFromRole("USER");
+        message.setText("hola");
+        message.setClientMsgId("c-1");
+        message.setCreatedAt(Instant.parse("2024-03-12T10:15:30.123Z"));
+        message.setOriginNode("node-a");
+
+        ChatMessageDto dto = mapper.toDto(message);
+
+        assertThat(dto).isEqualTo(new ChatMessageDto("65f0c0ffee0000000000abcd", "room-1", "u1", "USER", "hola",
+                "c-1", Instant.parse("2024-03-12T10:15:30.123Z")));
+        assertThat(mapper.toDtos(List.of(message))).containsExactly(dto);
+    }
+}
@@ -0,0 +1,94 @@
+package com.msvcchat.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import com.msvcchat.entity.MessageBucket;
+import com.msvcchat.repositories.MessageBucketRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageArchiveTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final MessageBucketRepository buckets = mock(MessageBucketRepository.class);
+    private MessageArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(ChatMessage.class)).thenReturn("messages");
+        when(mongoTemplate.findDistinct(any(Query.class), eq("roomId"), eq("messages"), eq(String.class)))
+                .thenReturn(Flux.just("room-1"));
+        when(buckets.findNewest(anyString(), any(Limit.class))).thenReturn(Flux.empty());
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("messages")))
+                .thenReturn(Flux.just(document(), document()));
+        when(mongoTemplate.insert(any(MessageBucket.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(mongoTemplate.remove(any(Query.class), anyString())).thenReturn(Mono.just(DeleteResult.acknowledged(2)));
+        archive = new MessageArchive(mongoTemplate, buckets, new ChatProperties(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void roomIsArchivedUnderItsLeaseAndTheLeaseIsReleased() {
+        leaseResult(Mono.just(new Document()));
+
+        assertThat(archive.compact().block(Duration.ofSeconds(5))).isEqualTo(2L);
+        verify(mongoTemplate).insert(any(MessageBucket.class));
+        verify(mongoTemplate).remove(any(Query.class), eq("archive_leases"));
+    }
+
+    @Test
+    void roomLeasedByAnotherInstanceIsSkipped() {
+        leaseResult(Mono.error(new DuplicateKeyException("E11000 duplicate key error")));
+
+        assertThat(archive.compact().block(Duration.ofSeconds(5))).isZero();
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), eq("messages"));
+        verify(mongoTemplate, never()).insert(any(MessageBucket.class));
+    }
+
+    @Test
+    void roomStopsWithoutWritingOnceTheLeaseIsLost() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq("archive_leases")))
+                .thenReturn(Mono.just(new Document()))
+                .thenReturn(Mono.empty());
+
+        assertThat(archive.compact().block(Duration.ofSeconds(5))).isZero();
+        verify(mongoTemplate, never()).insert(any(MessageBucket.class));
+    }
+
+    private void leaseResult(Mono<Document> result) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq("archive_leases"))).thenReturn(result);
+    }
+
+    private static Document document() {
+        return new Document("_id", new ObjectId())
+                .append("roomId", "room-1")
+                .append("createdAt", Date.from(Instant.parse("2020-01-01T10:00:00Z")))
+                .append("text", "hola");
+    }
+}
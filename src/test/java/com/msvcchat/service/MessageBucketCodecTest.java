@@ -0,0 +1,31 @@
+package com.msvcchat.service;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageBucketCodecTest {
+
+    @Test
+    void roundTripKeepsBsonTypesAndOrder() {
+        List<Document> messages = IntStream.range(0, 100)
+                .mapToObj(i -> new Document("_id", new ObjectId())
+                        .append("roomId", "room-1")
+                        .append("fromId", "u" + i % 3)
+                        .append("text", "mensaje " + i)
+                        .append("createdAt", new Date(1_700_000_000_000L + i)))
+                .toList();
+
+        byte[] bson = MessageBucketCodec.encode(messages);
+        byte[] payload = MessageBucketCodec.compress(bson);
+
+        assertThat(MessageBucketCodec.decompress(payload)).isEqualTo(messages);
+        assertThat(payload.length).isLessThan(bson.length);
+    }
+}
@@ -0,0 +1,201 @@
+package com.msvcchat.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.msvcchat.config.ChatProperties;
+import com.msvcchat.entity.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageWriteBehindTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> collection = mock(MongoCollection.class);
+    private MessageWriteBehind writeBehind;
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.stop();
+    }
+
+    @Test
+    void retryOfAStoredClientMsgIdIsConfirmedWithTheOriginalId() {
+        String originalId = new ObjectId().toHexString();
+        ChatMessage stored = message(originalId);
+        ChatMessage retry = message(new ObjectId().toHexString());
+        insertFails(new BulkWriteError(11000,
+                "E11000 duplicate key error collection: chat.messages index: room_client_msg_idx dup key", new BsonDocument(), 0));
+        when(mongoTemplate.findOne(any(Query.class), eq(ChatMessage.class))).thenReturn(Mono.just(stored));
+
+        assertThat(start().submit(retry).block(Duration.ofSeconds(5))).isEqualTo(originalId);
+    }
+
+    @Test
+    void duplicateIdFromAnEarlierAttemptCountsAsPersisted() {
+        ChatMessage message = message(new ObjectId().toHexString());
+        insertFails(new BulkWriteError(11000,
+                "E11000 duplicate key error collection: chat.messages index: _id_ dup key", new BsonDocument(), 0));
+        when(mongoTemplate.findOne(any(Query.class), eq(ChatMessage.class))).thenReturn(Mono.just(message));
+
+        assertThat(start().submit(message).block(Duration.ofSeconds(5))).isEqualTo(message.getId());
+    }
+
+    @Test
+    void duplicateOfAMessageWithoutClientMsgIdCountsAsPersistedWithoutLookingItUp() {
+        ChatMessage message = message(new ObjectId().toHexString());
+        message.setClientMsgId(null);
+        insertFails(new BulkWriteError(11000, "E11000 duplicate key error", new BsonDocument(), 0));
+
+        assertThat(start().submit(message).block(Duration.ofSeconds(5))).isEqualTo(message.getId());
+    }
+
+    @Test
+    void fullBatchIsFlushedWithoutWaitingForTheInterval() {
+        List<Integer> batches = recordBatches();
+        start(persistence -> {
+            persistence.setBatchSize(3);
+            persistence.setFlushInterval(Duration.ofMinutes(1));
+        });
+
+        List<Mono<String>> acks = List.of(
+                writeBehind.submit(message(new ObjectId().toHexString())),
+                writeBehind.submit(message(new ObjectId().toHexString())),
+                writeBehind.submit(message(new ObjectId().toHexString())));
+
+        assertThat(Mono.when(acks).timeout(Duration.ofSeconds(5)).then(Mono.just(true)).block()).isTrue();
+        assertThat(batches).containsExactly(3);
+    }
+
+    @Test
+    void incompleteBatchIsFlushedAfterTheInterval() {
+        List<Integer> batches = recordBatches();
+        start(persistence -> persistence.setFlushInterval(Duration.ofMillis(20)));
+
+        ChatMessage message = message(new ObjectId().toHexString());
+
+        assertThat(writeBehind.submit(message).block(Duration.ofSeconds(5))).isEqualTo(message.getId());
+        assertThat(batches).containsExactly(1);
+    }
+
+    @Test
+    void messageIsOnlyConfirmedOnceMongoAcknowledgesTheInsert() throws Exception {
+        Sinks.One<InsertManyResult> insert = Sinks.one();
+        when(collection.insertMany(anyList(), any())).thenReturn(insert.asMono());
+        ChatMessage message = message(new ObjectId().toHexString());
+
+        CompletableFuture<String> ack = start().submit(message).toFuture();
+        Thread.sleep(100);
+        assertThat(ack).isNotDone();
+
+        insert.tryEmitValue(mock(InsertManyResult.class));
+        assertThat(ack.get(5, TimeUnit.SECONDS)).isEqualTo(message.getId());
+    }
+
+    @Test
+    void failedInsertIsRetriedWithGrowingBackoff() {
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+        when(collection.insertMany(anyList(), any())).thenAnswer(invocation -> {
+            attempts.add(System.nanoTime());
+            return attempts.size() < 3
+                    ? Mono.error(new MongoException("sin primario"))
+                    : Mono.just(mock(InsertManyResult.class));
+        });
+        start(persistence -> persistence.setRetryBackoff(Duration.ofMillis(50)));
+        ChatMessage message = message(new ObjectId().toHexString());
+
+        assertThat(writeBehind.submit(message).block(Duration.ofSeconds(5))).isEqualTo(message.getId());
+        assertThat(attempts).hasSize(3);
+        assertThat(attempts.get(1) - attempts.get(0)).isGreaterThanOrEqualTo(Duration.ofMillis(50).toNanos());
+        assertThat(attempts.get(2) - attempts.get(1)).isGreaterThanOrEqualTo(Duration.ofMillis(100).toNanos());
+    }
+
+    @Test
+    void messageFailsOnceTheRetriesAreExhausted() {
+        List<Long> attempts = new CopyOnWriteArrayList<>();
+        when(collection.insertMany(anyList(), any())).thenAnswer(invocation -> {
+            attempts.add(System.nanoTime());
+            return Mono.error(new MongoException("sin primario"));
+        });
+        start(persistence -> {
+            persistence.setMaxRetries(2);
+            persistence.setRetryBackoff(Duration.ofMillis(10));
+        });
+
+        Mono<String> ack = writeBehind.submit(message(new ObjectId().toHexString()));
+
+        assertThatThrownBy(() -> ack.block(Duration.ofSeconds(5)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("2 reintentos");
+        assertThat(attempts).hasSize(3);
+    }
+
+    private MessageWriteBehind start() {
+        return start(persistence -> persistence.setFlushInterval(Duration.ofMillis(10)));
+    }
+
+    private MessageWriteBehind start(Consumer<ChatProperties.Persistence> config) {
+        when(mongoTemplate.getConverter()).thenReturn(mock(MongoConverter.class));
+        when(mongoTemplate.getCollectionName(ChatMessage.class)).thenReturn("messages");
+        when(mongoTemplate.getCollection("messages")).thenReturn(Mono.just(collection));
+        ChatProperties properties = new ChatProperties();
+        config.accept(properties.getPersistence());
+        writeBehind = new MessageWriteBehind(mongoTemplate, properties, new SimpleMeterRegistry());
+        writeBehind.start();
+        return writeBehind;
+    }
+
+    private List<Integer> recordBatches() {
+        List<Integer> batches = new CopyOnWriteArrayList<>();
+        when(collection.insertMany(anyList(), any())).thenAnswer(invocation -> {
+            batches.add(invocation.<List<?>>getArgument(0).size());
+            return Mono.just(mock(InsertManyResult.class));
+        });
+        return batches;
+    }
+
+    private void insertFails(BulkWriteError error) {
+        when(collection.insertMany(anyList(), any())).thenReturn(Mono.error(new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(), List.of(error), null, new ServerAddress(), Set.of())));
+    }
+
+    private static ChatMessage message(String id) {
+        ChatMessage message = new ChatMessage();
+        message.setId(id);
+        message.setRoomId("room-1");
+        message.setFromId("u1");
+        message.setText("hola");
+        message.setClientMsgId("c-1");
+        return message;
+    }
+}